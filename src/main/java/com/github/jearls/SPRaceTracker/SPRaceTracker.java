@@ -7,17 +7,16 @@ import java.io.File;
 import java.io.IOException;
 import java.util.prefs.Preferences;
 
+import com.github.jearls.SPRaceTracker.data.BackupScheduler;
 import com.github.jearls.SPRaceTracker.data.DataStore;
 import com.github.jearls.SPRaceTracker.data.DataStoreException;
 import com.github.jearls.SPRaceTracker.data.Driver;
 import com.github.jearls.SPRaceTracker.data.DriverObserver;
 import com.github.jearls.SPRaceTracker.data.EBeanDataStore;
-import com.github.jearls.SPRaceTracker.data.Finish;
+import com.github.jearls.SPRaceTracker.data.InstrumentedDataStore;
+import com.github.jearls.SPRaceTracker.data.TableMaintenance;
 import com.github.jearls.SPRaceTracker.data.Team;
 import com.github.jearls.SPRaceTracker.data.TeamObserver;
-import com.github.jearls.SPRaceTracker.data.importexport.CSVExporter;
-import com.github.jearls.SPRaceTracker.data.importexport.ImporterExporterException;
-import com.github.jearls.SPRaceTracker.data.importexport.XMLExporter;
 import com.github.jearls.SPRaceTracker.ui.DatabaseDirectoryChooser;
 
 /**
@@ -29,7 +28,47 @@ import com.github.jearls.SPRaceTracker.ui.DatabaseDirectoryChooser;
  *
  */
 public class SPRaceTracker implements TeamObserver, DriverObserver {
-    public static final String APP_NAME = "SPRaceTracker";
+    public static final String APP_NAME             = "SPRaceTracker";
+
+    /**
+     * The time, in milliseconds, between backups of the database.
+     */
+    public static final long   BACKUP_INTERVAL      = 60 * 60 * 1000L;
+
+    /**
+     * The time, in milliseconds, between compactions of the database tables.
+     */
+    public static final long   MAINTENANCE_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Stops the background work, then closes the data store, when the JVM
+     * exits. Ebean shuts its servers down from a shutdown hook of its own, and
+     * the JVM runs hooks in no particular order, so this is run by Ebean's
+     * hook, through the ebean.shutdown.runnable property, just before it does
+     * so. A backup or compaction in progress then finishes while the database
+     * is still open.
+     */
+    public static class Shutdown implements Runnable {
+        static TableMaintenance maintenance;
+        static BackupScheduler  backups;
+        static DataStore        dataStore;
+
+        public void run() {
+            if (maintenance != null) {
+                maintenance.close();
+            }
+            if (backups != null) {
+                backups.close();
+            }
+            if (dataStore != null) {
+                try {
+                    dataStore.close();
+                } catch (DataStoreException e) {
+                    System.err.println("Error closing data store: " + e);
+                }
+            }
+        }
+    }
 
     public void teamChanged(Team team, TeamElement changed) {
         System.err.println("Team changed: " + changed);
@@ -62,22 +101,32 @@ public class SPRaceTracker implements TeamObserver, DriverObserver {
 
         DataStore dataStore = null;
         try {
-            dataStore = new EBeanDataStore(dbPath);
+            EBeanDataStore ebeanDataStore = new EBeanDataStore(dbPath);
+            InstrumentedDataStore instrumented =
+                    new InstrumentedDataStore(ebeanDataStore);
+            instrumented.register(APP_NAME);
+            dataStore = instrumented;
+
+            BackupScheduler backups =
+                    new BackupScheduler(ebeanDataStore, new File(
+                            dbPath.getParentFile(), dbPath.getName()
+                                    + "-backups"));
+            backups.start(BACKUP_INTERVAL);
+            TableMaintenance maintenance =
+                    new TableMaintenance(ebeanDataStore);
+            maintenance.start(MAINTENANCE_INTERVAL,
+                    TableMaintenance.DEFAULT_IDLE_TIME);
+
+            Shutdown.maintenance = maintenance;
+            Shutdown.backups = backups;
+            Shutdown.dataStore = instrumented;
+            System.setProperty("ebean.shutdown.runnable",
+                    Shutdown.class.getName());
 
             // new XMLImporter(dataStore, new
             // File(System.getProperty("user.home", ".")
             // + File.separator + APP_NAME + ".xml"), APP_NAME).importData();
             // System.exit(0);
-            try {
-                new CSVExporter(new File(System.getProperty("user.home", ".")
-                        + File.separator + APP_NAME + ".zip")).exportData(
-                        dataStore, Finish.class);
-                new XMLExporter(new File(System.getProperty("user.home", ".")
-                        + File.separator + APP_NAME + ".xml"), APP_NAME)
-                        .exportData(dataStore, Finish.class);
-            } catch (ImporterExporterException e) {
-                System.err.println("Error exporting data store: " + e);
-            }
         } catch (DataStoreException e) {
             System.err.println("Error initializing data store: " + e);
             System.exit(1);
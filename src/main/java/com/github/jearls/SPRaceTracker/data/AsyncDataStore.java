@@ -0,0 +1,360 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * An asynchronous facade over a DataStore. Each call runs the corresponding
+ * blocking DataStore method on an executor and returns a CompletableFuture,
+ * so independent lookups can overlap and callers such as the Swing event
+ * thread never wait on the database. A failed call completes its future
+ * exceptionally with the DataStoreException (or RuntimeException) the
+ * DataStore threw.
+ * </p>
+ * <p>
+ * At most {@link #getMaxConcurrency()} calls run against the DataStore at
+ * once. Unless an executor is supplied, calls run on virtual threads when
+ * the Java runtime has them, and otherwise on a pool of daemon threads of
+ * that size.
+ * </p>
+ * <p>
+ * Calls run on threads other than the caller's, so they do not take part in
+ * a transaction begun by the caller; the DataStore's transactions are bound
+ * to the thread that begins them.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class AsyncDataStore {
+    public static final long serialVersionUID        = 1L;
+
+    /**
+     * The default number of calls allowed to run against the DataStore at
+     * once.
+     */
+    public static final int  DEFAULT_MAX_CONCURRENCY = 8;
+
+    final DataStore          dataStore;
+    final Executor           executor;
+    final ExecutorService    ownedExecutor;
+    final Semaphore          permits;
+    final int                maxConcurrency;
+
+    /**
+     * A single blocking call against the DataStore.
+     */
+    interface Call<T> {
+        T call() throws DataStoreException;
+    }
+
+    /**
+     * Creates an asynchronous facade with the default executor and
+     * concurrency.
+     * 
+     * @param dataStore
+     *            The DataStore to call.
+     */
+    public AsyncDataStore(DataStore dataStore) {
+        this(dataStore, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Creates an asynchronous facade with the default executor.
+     * 
+     * @param dataStore
+     *            The DataStore to call.
+     * @param maxConcurrency
+     *            The number of calls allowed to run at once.
+     */
+    public AsyncDataStore(DataStore dataStore, int maxConcurrency) {
+        this(dataStore, null, maxConcurrency);
+    }
+
+    /**
+     * Creates an asynchronous facade running its calls on a given executor.
+     * 
+     * @param dataStore
+     *            The DataStore to call.
+     * @param executor
+     *            The executor to run calls on, or null to use the default. An
+     *            executor passed in is not shut down by {@link #close()}.
+     * @param maxConcurrency
+     *            The number of calls allowed to run at once.
+     */
+    public AsyncDataStore(DataStore dataStore, Executor executor,
+                          int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(
+                    "concurrency limit must be positive");
+        }
+        this.dataStore = dataStore;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+        if (executor == null) {
+            this.ownedExecutor = defaultExecutor(maxConcurrency);
+            this.executor = this.ownedExecutor;
+        } else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Creates the default executor: one virtual thread per call if the
+     * runtime supports them (Java 21 and later), otherwise a fixed pool of
+     * daemon threads.
+     */
+    static ExecutorService defaultExecutor(int threads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    count += 1;
+                    Thread t = new Thread(r, "AsyncDataStore-" + count);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs a call on the executor, holding one of the concurrency permits
+     * while it runs.
+     */
+    <T> CompletableFuture<T> submit(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    permits.acquireUninterruptibly();
+                    try {
+                        future.complete(call.call());
+                    } catch (DataStoreException e) {
+                        future.completeExceptionally(e);
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Saves an object asynchronously.
+     * 
+     * @param o
+     *            The object to save.
+     * @return A future completed once the object is saved.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     */
+    public CompletableFuture<Void> save(final Object o) {
+        return submit(new Call<Void>() {
+            public Void call() throws DataStoreException {
+                dataStore.save(o);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes an object asynchronously.
+     * 
+     * @param o
+     *            The object to delete.
+     * @return A future completed once the object is deleted.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     */
+    public CompletableFuture<Void> delete(final Object o) {
+        return submit(new Call<Void>() {
+            public Void call() throws DataStoreException {
+                dataStore.delete(o);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Saves a collection of objects asynchronously.
+     * 
+     * @param objects
+     *            The objects to save.
+     * @return A future for the number of objects saved.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#saveAll(java.util.Collection)
+     */
+    public CompletableFuture<Integer> saveAll(final Collection<?> objects) {
+        return submit(new Call<Integer>() {
+            public Integer call() throws DataStoreException {
+                return dataStore.saveAll(objects);
+            }
+        });
+    }
+
+    /**
+     * Deletes a collection of objects asynchronously.
+     * 
+     * @param objects
+     *            The objects to delete.
+     * @return A future for the number of objects deleted.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#deleteAll(java.util.Collection)
+     */
+    public CompletableFuture<Integer> deleteAll(final Collection<?> objects) {
+        return submit(new Call<Integer>() {
+            public Integer call() throws DataStoreException {
+                return dataStore.deleteAll(objects);
+            }
+        });
+    }
+
+    /**
+     * Fetches an object by its ID asynchronously.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param ID
+     *            The ID of the object to fetch.
+     * @return A future for the object; it completes exceptionally with a
+     *         DataStoreNotFoundException if there is no such object.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByID(java.lang.Class,
+     *      java.lang.Object)
+     */
+    public <T> CompletableFuture<T> fetchByID(final Class<T> objectClass,
+                                              final Object ID) {
+        return submit(new Call<T>() {
+            public T call() throws DataStoreException {
+                return dataStore.fetchByID(objectClass, ID);
+            }
+        });
+    }
+
+    /**
+     * Fetches the objects with a specific field value asynchronously.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param field
+     *            The field name to search within the objects.
+     * @param value
+     *            The value to look for in that field.
+     * @return A future for the List of matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByField(java.lang.Class,
+     *      java.lang.String, java.lang.Object)
+     */
+    public <T> CompletableFuture<List<T>> fetchByField(
+            final Class<T> objectClass, final String field, final Object value) {
+        return submit(new Call<List<T>>() {
+            public List<T> call() throws DataStoreException {
+                return dataStore.fetchByField(objectClass, field, value);
+            }
+        });
+    }
+
+    /**
+     * Fetches the objects matching all the field values asynchronously.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -&gt; field value.
+     * @return A future for the List of matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByFields(java.lang.Class,
+     *      java.util.Map)
+     */
+    public <T> CompletableFuture<List<T>> fetchByFields(
+            final Class<T> objectClass, final Map<String, Object> fieldData) {
+        return submit(new Call<List<T>>() {
+            public List<T> call() throws DataStoreException {
+                return dataStore.fetchByFields(objectClass, fieldData);
+            }
+        });
+    }
+
+    /**
+     * Fetches an ordered, sliced page of the objects matching all the field
+     * values asynchronously.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -&gt; field value; null or empty to
+     *            match every object of the class.
+     * @param options
+     *            The ordering, offset, limit and keyset to apply.
+     * @return A future for the List of matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByFields(java.lang.Class,
+     *      java.util.Map, com.github.jearls.SPRaceTracker.data.FetchOptions)
+     */
+    public <T> CompletableFuture<List<T>> fetchByFields(
+            final Class<T> objectClass, final Map<String, Object> fieldData,
+            final FetchOptions options) {
+        return submit(new Call<List<T>>() {
+            public List<T> call() throws DataStoreException {
+                return dataStore.fetchByFields(objectClass, fieldData, options);
+            }
+        });
+    }
+
+    /**
+     * Fetches all objects of a class asynchronously.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @return A future for the List of objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchAll(java.lang.Class)
+     */
+    public <T> CompletableFuture<List<T>> fetchAll(final Class<T> objectClass) {
+        return submit(new Call<List<T>>() {
+            public List<T> call() throws DataStoreException {
+                return dataStore.fetchAll(objectClass);
+            }
+        });
+    }
+
+    /**
+     * @return the DataStore this facade calls.
+     */
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * @return the number of calls allowed to run against the DataStore at
+     *         once.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Stops accepting calls and shuts down the default executor, letting
+     * calls already submitted finish. Calls submitted afterwards complete
+     * exceptionally. An executor passed to the constructor is left running,
+     * and the DataStore itself is not closed.
+     */
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
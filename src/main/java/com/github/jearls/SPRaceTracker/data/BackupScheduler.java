@@ -0,0 +1,210 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A BackupScheduler backs up an {@link EBeanDataStore}'s database on a
+ * background thread, using Derby's online backup so that the data store can
+ * be read and written while the backup runs. Each backup is a generation: a
+ * subdirectory of the backups directory named after the time it was made.
+ * Only the newest generations are kept.
+ * </p>
+ * <p>
+ * A generation is restored with
+ * {@link EBeanDataStore#restore(File, File, boolean)} once the data store has
+ * been closed.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class BackupScheduler {
+    public static final long       serialVersionUID    = 1L;
+
+    /**
+     * The default number of generations kept.
+     */
+    public static final int        DEFAULT_GENERATIONS = 7;
+
+    /**
+     * The format of a generation's directory name, which sorts oldest first.
+     */
+    static final String            GENERATION_FORMAT   = "yyyyMMdd-HHmmss-SSS";
+
+    final EBeanDataStore           dataStore;
+    final File                     backupsDirectory;
+    final int                      generations;
+    final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a scheduler that keeps the default number of generations.
+     * 
+     * @param dataStore
+     *            The data store to back up.
+     * @param backupsDirectory
+     *            The directory to write the generations in.
+     */
+    public BackupScheduler(EBeanDataStore dataStore, File backupsDirectory) {
+        this(dataStore, backupsDirectory, DEFAULT_GENERATIONS);
+    }
+
+    /**
+     * Creates a scheduler. No backups are made until {@link #start(long)} or
+     * {@link #backup()} is called.
+     * 
+     * @param dataStore
+     *            The data store to back up.
+     * @param backupsDirectory
+     *            The directory to write the generations in.
+     * @param generations
+     *            The number of generations to keep.
+     */
+    public BackupScheduler(EBeanDataStore dataStore, File backupsDirectory,
+            int generations) {
+        if (generations < 1) {
+            throw new IllegalArgumentException(
+                    "at least one generation must be kept");
+        }
+        this.dataStore = dataStore;
+        this.backupsDirectory = backupsDirectory;
+        this.generations = generations;
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "BackupScheduler");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * @return the directory the generations are written in
+     */
+    public File getBackupsDirectory() {
+        return backupsDirectory;
+    }
+
+    /**
+     * @return the number of generations kept
+     */
+    public int getGenerations() {
+        return generations;
+    }
+
+    /**
+     * Starts backing up in the background. The first backup is made once the
+     * newest generation is an interval old, so restarting the application
+     * does not make a backup each time.
+     * 
+     * @param interval
+     *            The time, in milliseconds, between backups.
+     */
+    public void start(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        List<File> existing = listGenerations();
+        long delay = 0;
+        if (!existing.isEmpty()) {
+            long age =
+                    System.currentTimeMillis()
+                            - existing.get(existing.size() - 1).lastModified();
+            delay = Math.max(0, interval - age);
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    backup();
+                } catch (DataStoreException e) {
+                    System.err.println("Backup of " + dataStore.dbURL
+                            + " failed: " + e);
+                }
+            }
+        }, delay, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the generations in the backups directory, oldest first
+     */
+    public List<File> listGenerations() {
+        File[] dirs = backupsDirectory.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isDirectory()
+                        && f.getName().length() == GENERATION_FORMAT.length();
+            }
+        });
+        if (dirs == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(dirs);
+        return new ArrayList<File>(Arrays.asList(dirs));
+    }
+
+    /**
+     * Makes a new generation now, then deletes the oldest generations beyond
+     * the number kept. A backup that fails is deleted.
+     * 
+     * @return The new generation's directory.
+     * @throws DataStoreException
+     *             if the backup failed.
+     */
+    public synchronized File backup() throws DataStoreException {
+        File generation =
+                new File(backupsDirectory, new SimpleDateFormat(
+                        GENERATION_FORMAT).format(new Date()));
+        if (!generation.mkdirs()) {
+            throw new DataStoreException("Cannot create backup directory "
+                    + generation);
+        }
+        try {
+            dataStore.backup(generation);
+        } catch (DataStoreException e) {
+            delete(generation);
+            throw e;
+        }
+        List<File> existing = listGenerations();
+        for (int i = 0; i < existing.size() - generations; i += 1) {
+            delete(existing.get(i));
+        }
+        return generation;
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Stops making backups, waiting for a backup in progress to finish. The
+     * data store is not closed.
+     */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
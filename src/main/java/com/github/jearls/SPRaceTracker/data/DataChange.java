@@ -0,0 +1,81 @@
+package com.github.jearls.SPRaceTracker.data;
+
+/**
+ * A DataChange records one write to a data store: the data object's class
+ * and ID, whether it was inserted, updated or deleted, and the change
+ * version the write was given. Versions increase with every write, so a
+ * consumer that remembers the last version it has seen can ask the data
+ * store for only the changes made since.
+ * 
+ * @author jearls
+ * @see com.github.jearls.SPRaceTracker.data.DataStore#changesSince(long)
+ */
+public class DataChange {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * The kinds of write.
+     */
+    public enum Operation {
+        INSERT, UPDATE, DELETE
+    }
+
+    final long               version;
+    final Class<?>           dataClass;
+    final Object             id;
+    final Operation          operation;
+
+    /**
+     * Creates a change record.
+     * 
+     * @param version
+     *            The change version of the write.
+     * @param dataClass
+     *            The class of the data object written.
+     * @param id
+     *            The ID of the data object written.
+     * @param operation
+     *            The kind of write.
+     */
+    public DataChange(long version, Class<?> dataClass, Object id,
+            Operation operation) {
+        this.version = version;
+        this.dataClass = dataClass;
+        this.id = id;
+        this.operation = operation;
+    }
+
+    /**
+     * @return the change version of the write
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the class of the data object written
+     */
+    public Class<?> getDataClass() {
+        return dataClass;
+    }
+
+    /**
+     * @return the ID of the data object written
+     */
+    public Object getId() {
+        return id;
+    }
+
+    /**
+     * @return the kind of write
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    @Override
+    public String toString() {
+        return version + ":" + operation + " " + dataClass.getSimpleName()
+                + "[" + id + "]";
+    }
+}
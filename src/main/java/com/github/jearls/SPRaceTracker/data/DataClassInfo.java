@@ -0,0 +1,331 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+/**
+ * A DataClassInfo describes the persistent shape of a data class: its ID
+ * field, its identity fields (from @IdentifiedBy), and each persistent field
+ * along with the relation it represents. It is used by the data stores that
+ * manage objects themselves instead of handing them to Ebean.
+ * 
+ * @author jearls
+ */
+public class DataClassInfo {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * The kind of a persistent field.
+     */
+    public enum PropertyKind {
+        /**
+         * A plain value: a primitive, String, enum, UUID or similar.
+         */
+        VALUE,
+        /**
+         * A reference to a single related data object (@ManyToOne or
+         * @OneToOne).
+         */
+        TO_ONE,
+        /**
+         * A collection of related data objects whose relation is stored on
+         * the other side (@OneToMany, or @ManyToMany with a mappedBy).
+         */
+        TO_MANY_MAPPED,
+        /**
+         * A collection of related data objects whose relation is stored on
+         * this side (@ManyToMany without a mappedBy).
+         */
+        TO_MANY_OWNING
+    }
+
+    /**
+     * The description of one persistent field.
+     */
+    public static class PropertyInfo {
+        public final Field        field;
+        public final PropertyKind kind;
+        /**
+         * For relations, the data class on the other side; otherwise null.
+         */
+        public final Class<?>     relatedClass;
+        /**
+         * For TO_MANY_MAPPED relations, the name of the field on the other
+         * side that holds this relation; otherwise null.
+         */
+        public final String       mappedBy;
+        /**
+         * Whether saving the object should also save the related objects.
+         */
+        public final boolean      cascadeSave;
+        /**
+         * Whether deleting the object should also delete the related objects.
+         */
+        public final boolean      cascadeDelete;
+
+        PropertyInfo(Field field) {
+            this.field = field;
+            CascadeType[] cascade = new CascadeType[0];
+            String mapped = "";
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+            if (manyToOne != null) {
+                kind = PropertyKind.TO_ONE;
+                cascade = manyToOne.cascade();
+            } else if (oneToOne != null) {
+                kind = PropertyKind.TO_ONE;
+                cascade = oneToOne.cascade();
+                mapped = oneToOne.mappedBy();
+            } else if (oneToMany != null) {
+                kind = PropertyKind.TO_MANY_MAPPED;
+                cascade = oneToMany.cascade();
+                mapped = oneToMany.mappedBy();
+            } else if (manyToMany != null) {
+                mapped = manyToMany.mappedBy();
+                kind =
+                        (mapped.length() > 0) ? PropertyKind.TO_MANY_MAPPED
+                                : PropertyKind.TO_MANY_OWNING;
+                cascade = manyToMany.cascade();
+            } else {
+                kind = PropertyKind.VALUE;
+            }
+            if (kind == PropertyKind.TO_MANY_MAPPED
+                    || kind == PropertyKind.TO_MANY_OWNING) {
+                relatedClass =
+                        (Class<?>) ((ParameterizedType) field.getGenericType())
+                                .getActualTypeArguments()[0];
+            } else if (kind == PropertyKind.TO_ONE) {
+                relatedClass = field.getType();
+            } else {
+                relatedClass = null;
+            }
+            mappedBy = (mapped.length() > 0) ? mapped : null;
+            List<CascadeType> cascades = Arrays.asList(cascade);
+            cascadeSave =
+                    cascades.contains(CascadeType.ALL)
+                            || cascades.contains(CascadeType.PERSIST)
+                            || cascades.contains(CascadeType.MERGE);
+            cascadeDelete =
+                    cascades.contains(CascadeType.ALL)
+                            || cascades.contains(CascadeType.REMOVE);
+        }
+
+        /**
+         * @return true if this field is a collection of related objects.
+         */
+        public boolean isToMany() {
+            return kind == PropertyKind.TO_MANY_MAPPED
+                    || kind == PropertyKind.TO_MANY_OWNING;
+        }
+
+        /**
+         * @return the field name.
+         */
+        public String getName() {
+            return field.getName();
+        }
+
+        @Override
+        public String toString() {
+            return "PropertyInfo(" + field.getDeclaringClass().getSimpleName()
+                    + "." + field.getName() + "," + kind + ")";
+        }
+    }
+
+    public final Class<?>                  dataClass;
+    public final Field                     idField;
+    public final List<String>              identityFields;
+    public final List<PropertyInfo>        properties;
+    public final Map<String, PropertyInfo> propertyMap;
+
+    DataClassInfo(Class<?> dataClass) {
+        this.dataClass = dataClass;
+        this.idField = DataObjectUtilities.idField(dataClass);
+        IdentifiedBy identity = dataClass.getAnnotation(IdentifiedBy.class);
+        this.identityFields =
+                (identity == null) ? Collections.<String> emptyList()
+                        : Collections.unmodifiableList(Arrays.asList(identity
+                                .value()));
+        List<PropertyInfo> props = new LinkedList<PropertyInfo>();
+        Map<String, PropertyInfo> propMap =
+                new HashMap<String, PropertyInfo>();
+        for (Field f : dataClass.getFields()) {
+            if ((f.getModifiers() & (Modifier.FINAL | Modifier.STATIC)) != 0
+                    || f.getAnnotation(Transient.class) != null
+                    || f.getAnnotation(Id.class) != null) {
+                continue;
+            }
+            PropertyInfo prop = new PropertyInfo(f);
+            props.add(prop);
+            propMap.put(f.getName(), prop);
+        }
+        this.properties = Collections.unmodifiableList(props);
+        this.propertyMap = Collections.unmodifiableMap(propMap);
+    }
+
+    /**
+     * Finds the property on the other side of a relation that mirrors it: the
+     * collection mapped by a to-one reference or owning collection.
+     * 
+     * @param prop
+     *            A relation property of this class.
+     * @return The mirroring property of the related class, or null if the
+     *         relation is only navigable from this side.
+     */
+    public PropertyInfo inverseOf(PropertyInfo prop) {
+        if (prop.relatedClass == null) {
+            return null;
+        }
+        for (PropertyInfo other : forClass(prop.relatedClass).properties) {
+            if (prop.getName().equals(other.mappedBy)
+                    && DataObjectUtilities.entityClass(other.relatedClass) == dataClass) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the ID of an object of this class.
+     * 
+     * @param dataObject
+     *            The object.
+     * @return The ID, or null if none has been assigned.
+     */
+    public Object getId(Object dataObject) {
+        try {
+            return idField.get(dataObject);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Sets the ID of an object of this class.
+     * 
+     * @param dataObject
+     *            The object.
+     * @param id
+     *            The ID to assign.
+     */
+    public void setId(Object dataObject, Object id) {
+        try {
+            idField.set(dataObject, id);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Reads a persistent field of an object of this class. The getter is used
+     * if there is one, so that objects loaded by Ebean have the chance to
+     * lazy-load the field.
+     * 
+     * @param dataObject
+     *            The object.
+     * @param prop
+     *            The field to read.
+     * @return The field's value.
+     */
+    public Object get(Object dataObject, PropertyInfo prop) {
+        return DataObjectUtilities.getProperty(dataObject, prop.getName());
+    }
+
+    /**
+     * Sets a persistent field of an object of this class directly, without
+     * going through its setter, so no observers are notified.
+     * 
+     * @param dataObject
+     *            The object.
+     * @param prop
+     *            The field to set.
+     * @param value
+     *            The value to store.
+     */
+    public void set(Object dataObject, PropertyInfo prop, Object value) {
+        try {
+            prop.field.set(dataObject, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Creates a new, empty object of this class, with every collection field
+     * initialized to an empty list.
+     * 
+     * @return The new object.
+     */
+    public Object newInstance() {
+        try {
+            Object dataObject = dataClass.getConstructor().newInstance();
+            initializeCollections(dataObject);
+            return dataObject;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Replaces any null collection field of an object with an empty list, as
+     * the persistence layer would when loading the object.
+     * 
+     * @param dataObject
+     *            The object.
+     */
+    public void initializeCollections(Object dataObject) {
+        for (PropertyInfo prop : properties) {
+            if (prop.isToMany() && get(dataObject, prop) == null) {
+                set(dataObject, prop, new ArrayList<Object>());
+            }
+        }
+    }
+
+    /**
+     * the analysis cache for {@link #forClass(Class)}
+     */
+    static final Map<Class<?>, DataClassInfo> infoCache =
+                                                            new HashMap<Class<?>, DataClassInfo>();
+
+    /**
+     * A caching factory for DataClassInfo objects.
+     * 
+     * @param dataClass
+     *            The data class, or any subclass of it.
+     * @return The DataClassInfo of the data class.
+     */
+    public static DataClassInfo forClass(Class<?> dataClass) {
+        Class<?> entityClass = DataObjectUtilities.entityClass(dataClass);
+        synchronized (infoCache) {
+            DataClassInfo info = infoCache.get(entityClass);
+            if (info == null) {
+                info = new DataClassInfo(entityClass);
+                infoCache.put(entityClass, info);
+            }
+            return info;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DataClassInfo(" + dataClass.getSimpleName() + ")" + properties;
+    }
+}
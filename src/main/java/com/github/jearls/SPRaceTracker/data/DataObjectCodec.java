@@ -0,0 +1,374 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyInfo;
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyKind;
+import com.github.jearls.SPRaceTracker.data.EntityCache.Key;
+
+/**
+ * The binary encoding of data objects used by the file-based data stores. An
+ * object is written as its class name, its ID, and a list of (field name,
+ * tagged value) pairs covering its plain values and the relations stored on
+ * its side (to-one references and owning many-to-many collections). Related
+ * objects are written as (class name, ID) references, and are decoded as
+ * {@link EntityCache.Key} objects for the caller to resolve.
+ * 
+ * @author jearls
+ */
+class DataObjectCodec {
+    public static final long serialVersionUID = 1L;
+
+    static final byte        T_NULL           = 0;
+    static final byte        T_STRING         = 1;
+    static final byte        T_INT            = 2;
+    static final byte        T_LONG           = 3;
+    static final byte        T_BOOLEAN        = 4;
+    static final byte        T_UUID           = 5;
+    static final byte        T_ENUM           = 6;
+    static final byte        T_DOUBLE         = 7;
+    static final byte        T_REFERENCE      = 8;
+    static final byte        T_REFERENCE_LIST = 9;
+
+    /**
+     * The decoded form of an encoded data object.
+     */
+    static class DataRecord {
+        final Class<?>            dataClass;
+        final Object              id;
+        /**
+         * Field name -&gt; value. References are Keys; reference lists are
+         * Lists of Keys.
+         */
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+        DataRecord(Class<?> dataClass, Object id) {
+            this.dataClass = dataClass;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Checks whether a property's value is part of an object's encoding.
+     * Collections mapped by the other side are not; they are rebuilt from the
+     * references on the other side.
+     */
+    static boolean isEncoded(PropertyInfo prop) {
+        return prop.kind != PropertyKind.TO_MANY_MAPPED;
+    }
+
+    /**
+     * Writes a single tagged value.
+     * 
+     * @param out
+     *            Where to write the value.
+     * @param value
+     *            The value: null, a String, boxed primitive, UUID, enum, data
+     *            object, or collection of data objects.
+     * @throws IOException
+     *             if the value could not be written.
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(T_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof UUID) {
+            out.writeByte(T_UUID);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof Enum) {
+            out.writeByte(T_ENUM);
+            out.writeUTF(((Enum<?>) value).name());
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Collection) {
+            Collection<?> related = (Collection<?>) value;
+            out.writeByte(T_REFERENCE_LIST);
+            out.writeInt(related.size());
+            for (Object relatedObject : related) {
+                writeReference(out, relatedObject);
+            }
+        } else if (DataObjectUtilities.isDataObject(value.getClass())) {
+            out.writeByte(T_REFERENCE);
+            writeReference(out, value);
+        } else {
+            throw new IOException("Cannot encode value of type "
+                    + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Writes the (class name, ID) reference to a data object.
+     */
+    static void writeReference(DataOutput out, Object dataObject)
+            throws IOException {
+        DataClassInfo info = DataClassInfo.forClass(dataObject.getClass());
+        out.writeUTF(info.dataClass.getName());
+        writeValue(out, info.getId(dataObject));
+    }
+
+    /**
+     * Reads a single tagged value.
+     * 
+     * @param in
+     *            Where to read the value from.
+     * @param fieldType
+     *            The type of the field the value is for, used to decode enum
+     *            constants; may be null if the value is not an enum.
+     * @return The value, with references decoded as Keys.
+     * @throws IOException
+     *             if the value could not be read.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object readValue(DataInput in, Class<?> fieldType)
+            throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return in.readUTF();
+            case T_INT:
+                return in.readInt();
+            case T_LONG:
+                return in.readLong();
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_UUID:
+                return new UUID(in.readLong(), in.readLong());
+            case T_ENUM:
+                String name = in.readUTF();
+                if (fieldType == null || !fieldType.isEnum()) {
+                    throw new IOException("Enum value " + name
+                            + " for non-enum field");
+                }
+                return Enum.valueOf((Class<? extends Enum>) fieldType, name);
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_REFERENCE:
+                return readReference(in);
+            case T_REFERENCE_LIST:
+                int count = in.readInt();
+                List<Key> references = new ArrayList<Key>(count);
+                for (int i = 0; i < count; i += 1) {
+                    references.add(readReference(in));
+                }
+                return references;
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * Reads the (class name, ID) reference to a data object.
+     */
+    static Key readReference(DataInput in) throws IOException {
+        Class<?> dataClass = readClass(in);
+        return new Key(dataClass, readValue(in, null));
+    }
+
+    /**
+     * Reads a data class name and loads the class.
+     */
+    static Class<?> readClass(DataInput in) throws IOException {
+        String className = in.readUTF();
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown data class " + className, e);
+        }
+    }
+
+    /**
+     * Writes a data object: its class, ID, and encoded fields.
+     * 
+     * @param out
+     *            Where to write the object.
+     * @param dataObject
+     *            The object to write.
+     * @throws IOException
+     *             if the object could not be written.
+     */
+    static void writeObject(DataOutput out, Object dataObject)
+            throws IOException {
+        DataClassInfo info = DataClassInfo.forClass(dataObject.getClass());
+        out.writeUTF(info.dataClass.getName());
+        writeValue(out, info.getId(dataObject));
+        int count = 0;
+        for (PropertyInfo prop : info.properties) {
+            if (isEncoded(prop)) {
+                count += 1;
+            }
+        }
+        out.writeShort(count);
+        for (PropertyInfo prop : info.properties) {
+            if (isEncoded(prop)) {
+                out.writeUTF(prop.getName());
+                writeValue(out, info.get(dataObject, prop));
+            }
+        }
+    }
+
+    /**
+     * Reads a data object written by {@link #writeObject}. Fields that no
+     * longer exist in the data class are skipped.
+     * 
+     * @param in
+     *            Where to read the object from.
+     * @return The decoded record.
+     * @throws IOException
+     *             if the object could not be read.
+     */
+    static DataRecord readObject(DataInput in) throws IOException {
+        DataClassInfo info = DataClassInfo.forClass(readClass(in));
+        DataRecord record =
+                new DataRecord(info.dataClass, readValue(in, null));
+        int count = in.readShort();
+        for (int i = 0; i < count; i += 1) {
+            String name = in.readUTF();
+            PropertyInfo prop = info.propertyMap.get(name);
+            Object value =
+                    readValue(in, (prop == null) ? null : prop.field.getType());
+            if (prop != null) {
+                record.values.put(name, value);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Writes the collections of a data object that are mapped by the other
+     * side of their relation, which {@link #writeObject} leaves out. Formats
+     * that decode single objects, rather than replaying them all, need these
+     * to fill in the collections.
+     * 
+     * @param out
+     *            Where to write the collections.
+     * @param dataObject
+     *            The object whose collections to write.
+     * @throws IOException
+     *             if the collections could not be written.
+     */
+    static void writeMappedCollections(DataOutput out, Object dataObject)
+            throws IOException {
+        DataClassInfo info = DataClassInfo.forClass(dataObject.getClass());
+        int count = 0;
+        for (PropertyInfo prop : info.properties) {
+            if (!isEncoded(prop)) {
+                count += 1;
+            }
+        }
+        out.writeShort(count);
+        for (PropertyInfo prop : info.properties) {
+            if (!isEncoded(prop)) {
+                out.writeUTF(prop.getName());
+                writeValue(out, info.get(dataObject, prop));
+            }
+        }
+    }
+
+    /**
+     * Reads the collections written by {@link #writeMappedCollections} into
+     * a decoded record, skipping fields that no longer exist.
+     * 
+     * @param in
+     *            Where to read the collections from.
+     * @param record
+     *            The record to add the collections to.
+     * @throws IOException
+     *             if the collections could not be read.
+     */
+    static void readMappedCollections(DataInput in, DataRecord record)
+            throws IOException {
+        DataClassInfo info = DataClassInfo.forClass(record.dataClass);
+        int count = in.readShort();
+        for (int i = 0; i < count; i += 1) {
+            String name = in.readUTF();
+            Object value = readValue(in, null);
+            if (info.propertyMap.containsKey(name)) {
+                record.values.put(name, value);
+            }
+        }
+    }
+
+    /**
+     * Encodes a data object into a byte array.
+     * 
+     * @param dataObject
+     *            The object to encode.
+     * @return The encoded bytes.
+     * @throws IOException
+     *             if the object could not be encoded.
+     */
+    static byte[] encode(Object dataObject) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeObject(out, dataObject);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * An InputStream reading from a ByteBuffer, so that DataInputStream can
+     * decode values directly out of a (possibly memory-mapped) buffer.
+     */
+    static class ByteBufferInputStream extends InputStream {
+        final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * Creates a DataInput that reads from a ByteBuffer, starting at the
+     * buffer's current position and advancing it.
+     * 
+     * @param buffer
+     *            The buffer to read.
+     * @return The DataInput.
+     */
+    static DataInput dataInput(ByteBuffer buffer) {
+        return new DataInputStream(new ByteBufferInputStream(buffer));
+    }
+}
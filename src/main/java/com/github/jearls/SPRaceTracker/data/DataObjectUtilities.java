@@ -0,0 +1,242 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * This is a collection of reflection helpers for reading the properties of
+ * data objects, used by the data store implementations that need to inspect
+ * objects themselves instead of leaving it to the database.
+ * 
+ * @author jearls
+ */
+public abstract class DataObjectUtilities {
+    public static final long                        serialVersionUID = 1L;
+
+    /**
+     * The cache of property accessors used by {@link #getProperty}, mapping
+     * class -&gt; property name -&gt; getter Method or public Field.
+     */
+    static final Map<Class<?>, Map<String, Member>> accessorCache    =
+                                                                             new HashMap<Class<?>, Map<String, Member>>();
+
+    /**
+     * Finds the data class of a data object: the closest class in its
+     * hierarchy annotated with @Entity. This strips away any subclass the
+     * persistence layer may have generated.
+     * 
+     * @param dataClass
+     *            The class to start from.
+     * @return The @Entity class, or dataClass itself if none is found.
+     */
+    public static Class<?> entityClass(Class<?> dataClass) {
+        for (Class<?> c = dataClass; c != null; c = c.getSuperclass()) {
+            if (c.getAnnotation(Entity.class) != null) {
+                return c;
+            }
+        }
+        return dataClass;
+    }
+
+    /**
+     * Checks whether a class is a data class, that is, whether it or one of
+     * its superclasses is annotated with @Entity.
+     * 
+     * @param dataClass
+     *            The class to check.
+     * @return true if the class is a data class.
+     */
+    public static boolean isDataObject(Class<?> dataClass) {
+        return entityClass(dataClass).getAnnotation(Entity.class) != null;
+    }
+
+    /**
+     * Converts a field value into a form suitable for use as (part of) a hash
+     * key. Data objects compare by ID but do not hash by it, so they are
+     * replaced by their class and ID; every other value is returned as is.
+     * 
+     * @param value
+     *            The field value.
+     * @return The key form of the value.
+     */
+    public static Object keyValue(Object value) {
+        if (value != null && isDataObject(value.getClass())) {
+            return new EntityCache.Key(value.getClass(), getId(value));
+        }
+        return value;
+    }
+
+    /**
+     * Finds the field annotated with @Id in a data class.
+     * 
+     * @param dataClass
+     *            The data class.
+     * @return The ID field, or null if the class has none.
+     */
+    public static Field idField(Class<?> dataClass) {
+        for (Class<?> c = dataClass; c != null; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (f.getAnnotation(Id.class) != null) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ID of a data object.
+     * 
+     * @param dataObject
+     *            The data object.
+     * @return The value of its ID property, which may be null if the object
+     *         has never been saved.
+     */
+    public static Object getId(Object dataObject) {
+        Field f = idField(dataObject.getClass());
+        if (f == null) {
+            throw new IllegalArgumentException(dataObject.getClass()
+                    .getName() + " has no @Id field");
+        }
+        return getProperty(dataObject, f.getName());
+    }
+
+    /**
+     * Finds the accessor for a single property of a class: a public getter
+     * (get or is prefix) if there is one, otherwise a public field.
+     */
+    static Member accessorFor(Class<?> dataClass, String property) {
+        synchronized (accessorCache) {
+            Map<String, Member> accessors = accessorCache.get(dataClass);
+            if (accessors == null) {
+                accessors = new HashMap<String, Member>();
+                accessorCache.put(dataClass, accessors);
+            }
+            if (!accessors.containsKey(property)) {
+                Member accessor = null;
+                String titleCase =
+                        property.substring(0, 1).toUpperCase()
+                                + property.substring(1);
+                for (String pfx : new String[] { "get", "is" }) {
+                    try {
+                        accessor = dataClass.getMethod(pfx + titleCase);
+                        break;
+                    } catch (NoSuchMethodException e) {
+                    }
+                }
+                if (accessor == null) {
+                    try {
+                        accessor = dataClass.getField(property);
+                    } catch (NoSuchFieldException e) {
+                        throw new IllegalArgumentException(
+                                dataClass.getName() + " has no property "
+                                        + property);
+                    }
+                }
+                accessors.put(property, accessor);
+            }
+            return accessors.get(property);
+        }
+    }
+
+    /**
+     * Reads a property of a data object. The property name may be a
+     * dot-separated path such as <code>forRace.season</code>, in which case
+     * each step is followed in turn; a null anywhere along the path yields
+     * null.
+     * 
+     * @param dataObject
+     *            The data object to read.
+     * @param path
+     *            The property name or path.
+     * @return The property value.
+     */
+    public static Object getProperty(Object dataObject, String path) {
+        Object value = dataObject;
+        for (String property : path.split("\\.")) {
+            if (value == null) {
+                return null;
+            }
+            Member accessor = accessorFor(value.getClass(), property);
+            try {
+                if (accessor instanceof Method) {
+                    value = ((Method) accessor).invoke(value);
+                } else {
+                    value = ((Field) accessor).get(value);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException(e.getCause());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether a data object's properties match every field -&gt; value
+     * mapping in fieldData.
+     * 
+     * @param dataObject
+     *            The data object to check.
+     * @param fieldData
+     *            A mapping of field name -&gt; field value.
+     * @return true if every field matches.
+     */
+    public static boolean matches(Object dataObject,
+                                  Map<String, Object> fieldData) {
+        for (Map.Entry<String, Object> e : fieldData.entrySet()) {
+            Object value = getProperty(dataObject, e.getKey());
+            if (value == null ? e.getValue() != null : !value.equals(e
+                    .getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two property values for ordering. Nulls sort after every other
+     * value, as they do in Derby, so they come last in an ascending order and
+     * first in a descending one; Comparable values use their natural order;
+     * anything else, such as a related data object, is compared by the string
+     * form of its ID.
+     * 
+     * @param a
+     *            The first value.
+     * @param b
+     *            The second value.
+     * @return A negative, zero or positive number as a sorts before, with or
+     *         after b.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return (a == null ? 1 : 0) - (b == null ? 1 : 0);
+        }
+        if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return String.valueOf(getId(a)).compareTo(String.valueOf(getId(b)));
+    }
+
+    /**
+     * Creates an empty identity set for tracking the objects visited while
+     * walking an object graph.
+     * 
+     * @return The new set.
+     */
+    public static Set<Object> newVisitedSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    }
+}
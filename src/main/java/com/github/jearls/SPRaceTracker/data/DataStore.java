@@ -1,5 +1,8 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +37,98 @@ public abstract class DataStore {
      */
     public abstract void delete(Object o) throws DataStoreException;
 
+    /**
+     * Saves a collection of objects back to the DataStore, plus any other
+     * objects which cascade from them. The default implementation simply saves
+     * each object in turn; subclasses should override this if the underlying
+     * store can write many objects more cheaply than one at a time.
+     * 
+     * @param objects
+     *            The objects to save.
+     * @return The number of objects written.
+     * @throws DataStoreException
+     *             if an error occurred while saving.
+     */
+    public int saveAll(Collection<?> objects) throws DataStoreException {
+        int rows = 0;
+        for (Object o : objects) {
+            save(o);
+            rows += 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Removes a collection of objects from the DataStore. Might remove other
+     * objects based on the cascades. The default implementation simply deletes
+     * each object in turn.
+     * 
+     * @param objects
+     *            The objects to remove.
+     * @return The number of objects removed.
+     * @throws DataStoreException
+     *             if an error occurred while deleting.
+     */
+    public int deleteAll(Collection<?> objects) throws DataStoreException {
+        int rows = 0;
+        for (Object o : objects) {
+            delete(o);
+            rows += 1;
+        }
+        return rows;
+    }
+
+    /**
+     * Releases any resources held by the DataStore, such as open files,
+     * database connections and background threads. The DataStore must not be
+     * used after it is closed. The default implementation does nothing.
+     * 
+     * @throws DataStoreException
+     *             if an error occurred while closing.
+     */
+    public void close() throws DataStoreException {
+    }
+
+    /**
+     * Begins a unit of work on the current thread. Every save and delete made
+     * by this thread until the matching {@link #commitTransaction()} or
+     * {@link #rollbackTransaction()} is applied as a single unit. The default
+     * implementation does nothing, meaning each save and delete is applied
+     * immediately.
+     * 
+     * @throws DataStoreException
+     *             if a unit of work is already in progress on this thread, or
+     *             if the unit of work could not be started.
+     */
+    public void beginTransaction() throws DataStoreException {
+    }
+
+    /**
+     * Commits the unit of work in progress on the current thread. The default
+     * implementation does nothing.
+     * 
+     * @throws DataStoreException
+     *             if no unit of work is in progress on this thread, or if the
+     *             unit of work could not be committed; in the latter case the
+     *             unit of work has been rolled back.
+     */
+    public void commitTransaction() throws DataStoreException {
+    }
+
+    /**
+     * Discards every save and delete made by the unit of work in progress on
+     * the current thread. The default implementation cannot undo anything and
+     * always throws a DataStoreException.
+     * 
+     * @throws DataStoreException
+     *             if no unit of work is in progress on this thread, or if the
+     *             unit of work could not be rolled back.
+     */
+    public void rollbackTransaction() throws DataStoreException {
+        throw new DataStoreException(this.getClass().getSimpleName()
+                + " does not support rolling back transactions");
+    }
+
     /**
      * Fetches an object from the data store by its ID.
      * 
@@ -50,6 +145,63 @@ public abstract class DataStore {
     public abstract <T> T fetchByID(Class<T> objectClass, Object ID)
             throws DataStoreNotFoundException, DataStoreException;
 
+    /**
+     * Fetches many objects from the data store by their IDs. The default
+     * implementation calls {@link #fetchByID(Class, Object)} for each ID;
+     * subclasses should override this to look the objects up together.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param IDs
+     *            The IDs of the objects to fetch.
+     * @return A Map of ID -&gt; object for every ID that was found, in the
+     *         order of the IDs.
+     * @throws DataStoreException
+     *             if an error occurred while fetching the objects.
+     */
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs)
+            throws DataStoreException {
+        return fetchByIDs(objectClass, IDs, null);
+    }
+
+    /**
+     * Fetches many objects from the data store by their IDs, reporting the
+     * IDs that were not found instead of throwing a
+     * DataStoreNotFoundException.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param IDs
+     *            The IDs of the objects to fetch.
+     * @param missingIDs
+     *            A collection to which the IDs that were not found are added;
+     *            may be null.
+     * @return A Map of ID -&gt; object for every ID that was found, in the
+     *         order of the IDs.
+     * @throws DataStoreException
+     *             if an error occurred while fetching the objects.
+     */
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs,
+                                         Collection<Object> missingIDs)
+            throws DataStoreException {
+        Map<Object, T> found = new LinkedHashMap<Object, T>();
+        for (Object ID : IDs) {
+            if (found.containsKey(ID)) {
+                continue;
+            }
+            try {
+                found.put(ID, fetchByID(objectClass, ID));
+            } catch (DataStoreNotFoundException e) {
+                if (missingIDs != null) {
+                    missingIDs.add(ID);
+                }
+            }
+        }
+        return found;
+    }
+
     /**
      * Fetches zero or more objects from the data store who have a field with a
      * specific value.
@@ -86,6 +238,204 @@ public abstract class DataStore {
                                               Map<String, Object> fieldData)
             throws DataStoreException;
 
+    /**
+     * Fetches zero or more objects from the data store who have fields that
+     * match all of the field value mappings in fieldData, ordered and sliced
+     * as described by the FetchOptions. The default implementation fetches
+     * every matching object and sorts and slices the list in memory;
+     * subclasses should override this to push the work into the underlying
+     * store.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            match every object of the class.
+     * @param options
+     *            The ordering, offset, limit and keyset to apply.
+     * @return A List of zero or more objects of the given class that match the
+     *         query, in the requested order.
+     * @throws DataStoreNotFoundException
+     *             if the options name an afterID that does not exist.
+     * @throws DataStoreException
+     *             if an error occurred while fetching the objects.
+     */
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData,
+                                     FetchOptions options)
+            throws DataStoreException {
+        List<T> results;
+        if (fieldData == null || fieldData.isEmpty()) {
+            results = new ArrayList<T>(fetchAll(objectClass));
+        } else {
+            results = new ArrayList<T>(fetchByFields(objectClass, fieldData));
+        }
+        T anchor = null;
+        if (options.getAfterID() != null) {
+            anchor = fetchByID(objectClass, options.getAfterID());
+        }
+        return options.apply(results, DataObjectUtilities
+                .idField(objectClass).getName(), anchor);
+    }
+
+    /**
+     * Counts the objects in the data store who have fields that match all of
+     * the field value mappings in fieldData. The default implementation
+     * fetches the matching objects and counts them; subclasses should
+     * override this to count without loading the objects.
+     * 
+     * @param objectClass
+     *            The object class to count.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            count every object of the class.
+     * @return The number of matching objects.
+     * @throws DataStoreException
+     *             if an error occurred while counting the objects.
+     */
+    public int count(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        if (fieldData == null || fieldData.isEmpty()) {
+            return fetchAll(objectClass).size();
+        }
+        return fetchByFields(objectClass, fieldData).size();
+    }
+
+    /**
+     * Checks whether the data store holds any object who has fields that
+     * match all of the field value mappings in fieldData. The default
+     * implementation uses {@link #count(Class, Map)}; subclasses should
+     * override this to stop at the first match.
+     * 
+     * @param objectClass
+     *            The object class to look for.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            check for any object of the class.
+     * @return true if at least one object matches.
+     * @throws DataStoreException
+     *             if an error occurred while querying the data store.
+     */
+    public boolean exists(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        return count(objectClass, fieldData) > 0;
+    }
+
+    /**
+     * Computes the drivers' standings for a season: the points each Driver
+     * scored across the season's races, most points first. Each finish scores
+     * the points for its place, multiplied by the race's value multiplier. The
+     * default implementation loads every Race and Finish of the season;
+     * subclasses should override this to total the points inside the store.
+     * 
+     * @param season
+     *            The season to compute standings for.
+     * @param pointsByPlace
+     *            The points awarded for each place, starting with first place.
+     *            Places past the end of the array score nothing.
+     * @return The standings, one per Driver with a finish in the season.
+     * @throws DataStoreException
+     *             if an error occurred while querying the data store.
+     */
+    public List<Standing> driverStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        return standings(season, pointsByPlace, false);
+    }
+
+    /**
+     * Computes the teams' standings for a season: the points scored by each
+     * Team's drivers across the season's races, most points first. Finishes
+     * are credited to the driver's current team. The default implementation
+     * loads every Race and Finish of the season; subclasses should override
+     * this to total the points inside the store.
+     * 
+     * @param season
+     *            The season to compute standings for.
+     * @param pointsByPlace
+     *            The points awarded for each place, starting with first place.
+     *            Places past the end of the array score nothing.
+     * @return The standings, one per Team with a finish in the season.
+     * @throws DataStoreException
+     *             if an error occurred while querying the data store.
+     */
+    public List<Standing> teamStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        return standings(season, pointsByPlace, true);
+    }
+
+    /**
+     * Totals a season's points per Driver or per Team in memory.
+     */
+    List<Standing> standings(Season season, int[] pointsByPlace, boolean byTeam)
+            throws DataStoreException {
+        Map<Object, Long> points = new LinkedHashMap<Object, Long>();
+        Map<Object, Integer> finishes = new LinkedHashMap<Object, Integer>();
+        for (Race race : fetchByField(Race.class, "season", season)) {
+            for (Finish finish : fetchByField(Finish.class, "forRace", race)) {
+                Driver driver = finish.getDriver();
+                Object id = null;
+                if (driver != null && !byTeam) {
+                    id = driver.getId();
+                } else if (driver != null && driver.getTeam() != null) {
+                    id = driver.getTeam().getId();
+                }
+                if (id == null) {
+                    continue;
+                }
+                Long total = points.get(id);
+                Integer count = finishes.get(id);
+                points.put(id, ((total == null) ? 0 : total)
+                        + Standing.pointsFor(pointsByPlace, finish.getPlace(),
+                                race.getValueMultiplier()));
+                finishes.put(id, ((count == null) ? 0 : count) + 1);
+            }
+        }
+        return Standing.fromTotals(points, finishes);
+    }
+
+    /**
+     * Returns the changes made to the data store after a change version, in
+     * the order they were made. Every insert, update and delete of a data
+     * object, including those reached through cascades, is given a new
+     * version, and inserted and updated objects carry theirs in their
+     * changeVersion field. A consumer can remember the last version it has
+     * processed and ask for only what has changed since, instead of fetching
+     * everything again. A change is only returned once every change with an
+     * earlier version has been committed or rolled back, so asking again from
+     * the last version returned never misses a change. The default
+     * implementation does not record changes and always throws a
+     * DataStoreException.
+     * 
+     * @param version
+     *            The last version already seen; 0 for every recorded change.
+     * @return The changes with a later version, oldest first.
+     * @throws DataStoreException
+     *             if the data store does not record changes, or if an error
+     *             occurred while reading them.
+     */
+    public List<DataChange> changesSince(long version)
+            throws DataStoreException {
+        throw new DataStoreException(this.getClass().getSimpleName()
+                + " does not record changes");
+    }
+
+    /**
+     * Returns the version of the latest change made to the data store that
+     * {@link #changesSince(long)} can return: every change up to it has been
+     * committed or rolled back. The default implementation does not record
+     * changes and always throws a DataStoreException.
+     * 
+     * @return The latest change version, or 0 if no change has been recorded.
+     * @throws DataStoreException
+     *             if the data store does not record changes, or if an error
+     *             occurred while reading them.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#changesSince(long)
+     */
+    public long currentVersion() throws DataStoreException {
+        throw new DataStoreException(this.getClass().getSimpleName()
+                + " does not record changes");
+    }
+
     /**
      * Fetches all objects from the data store of a given class.
      * 
@@ -97,4 +447,52 @@ public abstract class DataStore {
      */
     public abstract <T> List<T> fetchAll(Class<T> objectClass)
             throws DataStoreException;
+
+    /**
+     * Fetches all objects from the data store of a given class, handing them
+     * to a visitor one at a time. The default implementation fetches the
+     * complete list with {@link #fetchAll(Class)}; subclasses should override
+     * this if the underlying store can stream its objects.
+     * 
+     * @param objectClass
+     *            The object class to fetch.
+     * @param visitor
+     *            The visitor to receive each fetched object.
+     * @throws DataStoreException
+     *             if an error occurred while fetching the objects, or if the
+     *             visitor threw a DataStoreException.
+     */
+    public <T> void forEach(Class<T> objectClass,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        for (T dataObject : fetchAll(objectClass)) {
+            visitor.visit(dataObject);
+        }
+    }
+
+    /**
+     * Fetches all objects from the data store of a given class, ordered,
+     * sliced and with related objects loaded as described by the
+     * FetchOptions, handing them to a visitor one at a time. The default
+     * implementation fetches the complete list with
+     * {@link #fetchByFields(Class, Map, FetchOptions)}; subclasses should
+     * override this if the underlying store can stream its objects.
+     * 
+     * @param objectClass
+     *            The object class to fetch.
+     * @param options
+     *            The ordering, slicing and fetch paths to apply.
+     * @param visitor
+     *            The visitor to receive each fetched object.
+     * @throws DataStoreException
+     *             if an error occurred while fetching the objects, or if the
+     *             visitor threw a DataStoreException.
+     */
+    public <T> void forEach(Class<T> objectClass, FetchOptions options,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        for (T dataObject : fetchByFields(objectClass, null, options)) {
+            visitor.visit(dataObject);
+        }
+    }
 }
@@ -0,0 +1,655 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A DataStoreRouter holds many league databases open at once. Each league is
+ * an {@link EBeanDataStore} on its own Derby directory, a subdirectory of the
+ * router's leagues directory named after the league. Each thread chooses the
+ * league it works on with {@link #useLeague(String)}, and every DataStore
+ * call it then makes is routed to that league's data store.
+ * </p>
+ * <p>
+ * Leagues are opened when they are first used. Every open league holds a
+ * Derby page cache and an Ebean server, so no more than
+ * {@link #getMaxOpen()} leagues are kept open: once there are more, the
+ * least recently used leagues that no call or transaction is using are
+ * closed. A closed league is opened again when it is next used. Objects
+ * fetched from a league should not be lazily loaded or saved after the
+ * league has been closed.
+ * </p>
+ * <p>
+ * Databases are opened and closed without holding the router's lock, so a
+ * slow open or close only holds up the calls that need that league. A
+ * league being opened or closed is waited for.
+ * </p>
+ * <p>
+ * A transaction pins its league open until it is committed or rolled back,
+ * and the thread cannot change leagues while it is in progress.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class DataStoreRouter extends DataStore {
+    public static final long    serialVersionUID = 1L;
+
+    /**
+     * The default number of leagues kept open at once.
+     */
+    public static final int     DEFAULT_MAX_OPEN = 4;
+
+    final File                  leaguesDirectory;
+    final int                   maxOpen;
+
+    /**
+     * The open leagues, least recently used first. Guarded by this.
+     */
+    final Map<String, League>   open;
+
+    /**
+     * The leagues that have been evicted or closed and whose data stores are
+     * still being closed. A league is not opened again until its data store
+     * has been closed. Guarded by this.
+     */
+    final Map<String, League>   closing          =
+                                                         new HashMap<String, League>();
+
+    /**
+     * The league each thread has chosen.
+     */
+    final ThreadLocal<String>   currentLeague    = new ThreadLocal<String>();
+
+    /**
+     * The league each thread has a transaction in progress on.
+     */
+    final ThreadLocal<League>   transaction      = new ThreadLocal<League>();
+
+    /**
+     * An open league, and the number of calls and transactions using it.
+     */
+    static class League {
+        final String   name;
+
+        /**
+         * The league's data store, or null while it is being opened. Guarded
+         * by the router.
+         */
+        EBeanDataStore dataStore = null;
+        int            users     = 0;
+
+        League(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Creates a router that keeps the default number of leagues open.
+     * 
+     * @param leaguesDirectory
+     *            The directory holding a database directory for each league.
+     */
+    public DataStoreRouter(File leaguesDirectory) {
+        this(leaguesDirectory, DEFAULT_MAX_OPEN);
+    }
+
+    /**
+     * Creates a router.
+     * 
+     * @param leaguesDirectory
+     *            The directory holding a database directory for each league.
+     * @param maxOpen
+     *            The number of leagues to keep open at once.
+     */
+    public DataStoreRouter(File leaguesDirectory, int maxOpen) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("maxOpen must be at least 1");
+        }
+        this.leaguesDirectory = leaguesDirectory;
+        this.maxOpen = maxOpen;
+        this.open = new LinkedHashMap<String, League>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the directory holding a database directory for each league
+     */
+    public File getLeaguesDirectory() {
+        return leaguesDirectory;
+    }
+
+    /**
+     * @return the number of leagues kept open at once
+     */
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    /**
+     * Returns the database directory of a league.
+     * 
+     * @param league
+     *            The league name.
+     * @return The league's directory, which may not exist yet.
+     */
+    public File leagueDirectory(String league) {
+        return new File(leaguesDirectory, league);
+    }
+
+    /**
+     * @return the names of the leagues that have a database directory, in
+     *         alphabetical order
+     */
+    public List<String> getLeagues() {
+        List<String> leagues = new ArrayList<String>();
+        File[] dirs = leaguesDirectory.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isDirectory();
+            }
+        });
+        if (dirs != null) {
+            Arrays.sort(dirs);
+            for (File dir : dirs) {
+                leagues.add(dir.getName());
+            }
+        }
+        return leagues;
+    }
+
+    /**
+     * @return the names of the leagues currently open, least recently used
+     *         first
+     */
+    public synchronized List<String> getOpenLeagues() {
+        return new ArrayList<String>(open.keySet());
+    }
+
+    /**
+     * Chooses the league that this thread's DataStore calls are routed to. A
+     * league that does not exist yet is created when it is first used.
+     * 
+     * @param league
+     *            The league name.
+     * @throws DataStoreException
+     *             if this thread has a transaction in progress on another
+     *             league.
+     */
+    public void useLeague(String league) throws DataStoreException {
+        League inTransaction = transaction.get();
+        if (inTransaction != null && !inTransaction.name.equals(league)) {
+            throw new DataStoreException("Transaction in progress on league "
+                    + inTransaction.name);
+        }
+        currentLeague.set(league);
+    }
+
+    /**
+     * @return the league this thread's DataStore calls are routed to, or null
+     *         if it has not chosen one
+     */
+    public String getLeague() {
+        return currentLeague.get();
+    }
+
+    /**
+     * Returns the open data store of a league, opening it if necessary. The
+     * data store is closed again when the league is evicted or the router is
+     * closed, so it should only be used while the league is known to be open.
+     * 
+     * @param league
+     *            The league name.
+     * @return The league's data store.
+     * @throws DataStoreException
+     *             if the league's database could not be opened.
+     */
+    public EBeanDataStore leagueDataStore(String league)
+            throws DataStoreException {
+        League l = open(league);
+        release(l);
+        return l.dataStore;
+    }
+
+    /**
+     * Waits for another thread to finish opening or closing a league. The
+     * caller must hold the lock on this.
+     */
+    void awaitLeagues() throws DataStoreException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted waiting for a league", e);
+        }
+    }
+
+    /**
+     * Returns an open league, marked as in use, opening it if necessary. The
+     * league is reserved while holding the lock on this, but its database is
+     * opened without it; other threads that want the league meanwhile wait
+     * for it to open.
+     */
+    League open(String league) throws DataStoreException {
+        League l;
+        synchronized (this) {
+            while (true) {
+                l = open.get(league);
+                if (l != null && l.dataStore != null) {
+                    l.users += 1;
+                    return l;
+                }
+                if (l == null && !closing.containsKey(league)) {
+                    break;
+                }
+                awaitLeagues();
+            }
+            l = new League(league);
+            l.users = 1;
+            open.put(league, l);
+        }
+        EBeanDataStore dataStore = null;
+        try {
+            dataStore =
+                    new EBeanDataStore(leagueDirectory(league),
+                            EBeanDataStore.DEFAULT_SERVER_NAME + "-" + league);
+        } finally {
+            synchronized (this) {
+                if (dataStore == null) {
+                    open.remove(league);
+                } else {
+                    l.dataStore = dataStore;
+                }
+                notifyAll();
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Removes the least recently used leagues that nothing is using, until no
+     * more than maxOpen leagues are open, and marks them as closing. The
+     * caller must hold the lock on this, and must then close the leagues
+     * with {@link #closeLeagues(List)} after releasing it.
+     * 
+     * @return The removed leagues.
+     */
+    List<League> evict() {
+        List<League> evicted = new ArrayList<League>();
+        Iterator<League> leagues = open.values().iterator();
+        while (open.size() > maxOpen && leagues.hasNext()) {
+            League l = leagues.next();
+            if (l.users == 0) {
+                leagues.remove();
+                closing.put(l.name, l);
+                evicted.add(l);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Closes the data stores of leagues removed from the open leagues, then
+     * lets them be opened again.
+     * 
+     * @return The last error closing a data store, or null.
+     */
+    DataStoreException closeLeagues(List<League> leagues) {
+        DataStoreException failure = null;
+        for (League l : leagues) {
+            try {
+                l.dataStore.close();
+            } catch (DataStoreException e) {
+                System.err.println("Could not close league " + l.name + ": "
+                        + e);
+                failure = e;
+            }
+        }
+        if (!leagues.isEmpty()) {
+            synchronized (this) {
+                for (League l : leagues) {
+                    closing.remove(l.name);
+                }
+                notifyAll();
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Returns this thread's league, opened and marked as in use. Every call
+     * to acquire must be followed by a call to release.
+     * 
+     * @throws DataStoreException
+     *             if this thread has not chosen a league, or the league's
+     *             database could not be opened.
+     */
+    League acquire() throws DataStoreException {
+        League l = transaction.get();
+        if (l != null) {
+            synchronized (this) {
+                l.users += 1;
+            }
+            return l;
+        }
+        String league = currentLeague.get();
+        if (league == null) {
+            throw new DataStoreException("No league chosen");
+        }
+        l = open(league);
+        List<League> evicted;
+        synchronized (this) {
+            evicted = evict();
+        }
+        closeLeagues(evicted);
+        return l;
+    }
+
+    /**
+     * Marks a league as no longer used by a call, closing idle leagues if
+     * too many are open.
+     */
+    void release(League l) {
+        List<League> evicted;
+        synchronized (this) {
+            l.users -= 1;
+            evicted = evict();
+        }
+        closeLeagues(evicted);
+    }
+
+    @Override
+    public void save(Object o) throws DataStoreException {
+        League l = acquire();
+        try {
+            l.dataStore.save(o);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public void delete(Object o) throws DataStoreException {
+        League l = acquire();
+        try {
+            l.dataStore.delete(o);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public int saveAll(Collection<?> objects) throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.saveAll(objects);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<?> objects) throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.deleteAll(objects);
+        } finally {
+            release(l);
+        }
+    }
+
+    /**
+     * Closes every open league, after waiting for those being opened. Leagues
+     * that are still in use by a transaction are closed as well.
+     * 
+     * @throws DataStoreException
+     *             if a league could not be closed; the other leagues are
+     *             still closed.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public void close() throws DataStoreException {
+        List<League> leagues;
+        synchronized (this) {
+            while (isOpening()) {
+                awaitLeagues();
+            }
+            leagues = new ArrayList<League>(open.values());
+            open.clear();
+            for (League l : leagues) {
+                closing.put(l.name, l);
+            }
+        }
+        DataStoreException failure = closeLeagues(leagues);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Checks whether any league is being opened. The caller must hold the
+     * lock on this.
+     */
+    boolean isOpening() {
+        for (League l : open.values()) {
+            if (l.dataStore == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Begins a transaction on this thread's league, which stays open until
+     * the transaction is committed or rolled back.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#beginTransaction()
+     */
+    @Override
+    public void beginTransaction() throws DataStoreException {
+        if (transaction.get() != null) {
+            throw new DataStoreException("Transaction already in progress");
+        }
+        League l = acquire();
+        try {
+            l.dataStore.beginTransaction();
+        } catch (DataStoreException e) {
+            release(l);
+            throw e;
+        }
+        transaction.set(l);
+    }
+
+    @Override
+    public void commitTransaction() throws DataStoreException {
+        League l = transaction.get();
+        if (l == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        try {
+            l.dataStore.commitTransaction();
+        } finally {
+            transaction.remove();
+            release(l);
+        }
+    }
+
+    @Override
+    public void rollbackTransaction() throws DataStoreException {
+        League l = transaction.get();
+        if (l == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        try {
+            l.dataStore.rollbackTransaction();
+        } finally {
+            transaction.remove();
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> T fetchByID(Class<T> objectClass, Object ID)
+            throws DataStoreNotFoundException, DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchByID(objectClass, ID);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs,
+                                         Collection<Object> missingIDs)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchByIDs(objectClass, IDs, missingIDs);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByField(Class<T> objectClass, String field,
+                                    Object value) throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchByField(objectClass, field, value);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchByFields(objectClass, fieldData);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData,
+                                     FetchOptions options)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchByFields(objectClass, fieldData, options);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public int count(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.count(objectClass, fieldData);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public boolean exists(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.exists(objectClass, fieldData);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public List<Standing> driverStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.driverStandings(season, pointsByPlace);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public List<Standing> teamStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.teamStandings(season, pointsByPlace);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public List<DataChange> changesSince(long version)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.changesSince(version);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public long currentVersion() throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.currentVersion();
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchAll(Class<T> objectClass) throws DataStoreException {
+        League l = acquire();
+        try {
+            return l.dataStore.fetchAll(objectClass);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            l.dataStore.forEach(objectClass, visitor);
+        } finally {
+            release(l);
+        }
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass, FetchOptions options,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        League l = acquire();
+        try {
+            l.dataStore.forEach(objectClass, options, visitor);
+        } finally {
+            release(l);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.List;
+
+/**
+ * The JMX view of an {@link InstrumentedDataStore}'s statistics.
+ * 
+ * @author jearls
+ */
+public interface DataStoreStatisticsMXBean {
+
+    /**
+     * @return a snapshot of the statistics for every operation and data class
+     *         seen so far, busiest first.
+     */
+    public List<OperationStatistics> getOperationStatistics();
+
+    /**
+     * @return the total number of DataStore calls.
+     */
+    public long getTotalCalls();
+
+    /**
+     * @return the total number of DataStore calls that threw an exception.
+     */
+    public long getTotalErrors();
+
+    /**
+     * Discards all the statistics gathered so far.
+     */
+    public void resetStatistics();
+
+}
@@ -0,0 +1,23 @@
+package com.github.jearls.SPRaceTracker.data;
+
+/**
+ * A DataStoreVisitor is handed the objects streamed out of a data store one at
+ * a time, so that the caller never needs to hold all of them in memory at
+ * once.
+ * 
+ * @author jearls
+ */
+public interface DataStoreVisitor<T> {
+
+    /**
+     * This method is called once for each object fetched from the data store.
+     * 
+     * @param dataObject
+     *            The object fetched from the data store.
+     * @throws DataStoreException
+     *             to stop the fetch; the exception is passed back to the
+     *             caller of the fetch.
+     */
+    public void visit(T dataObject) throws DataStoreException;
+
+}
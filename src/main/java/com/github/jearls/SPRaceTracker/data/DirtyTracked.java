@@ -0,0 +1,24 @@
+package com.github.jearls.SPRaceTracker.data;
+
+/**
+ * A DirtyTracked data object remembers whether it has been changed since it
+ * was last saved, so that a data store can skip saving an object that has
+ * nothing new to write. The data classes record their changes in their
+ * notify methods, which every setter calls.
+ * 
+ * @author jearls
+ */
+public interface DirtyTracked {
+
+    /**
+     * @return true if the object has changed since it was last saved.
+     */
+    public boolean isDirty();
+
+    /**
+     * Forgets the object's changes. Data stores call this once the changes
+     * have been saved.
+     */
+    public void clearDirty();
+
+}
@@ -1,5 +1,6 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,7 +20,7 @@ import com.github.jearls.SPRaceTracker.data.DriverObserver.DriverElement;
  */
 @Entity
 @IdentifiedBy("name")
-public class Driver {
+public class Driver implements DirtyTracked {
 
     public enum DriverStatus {
         Active, Retired;
@@ -27,7 +28,7 @@ public class Driver {
 
     // When adding new fields or changing fields, make sure to update
     // serialVersionUID.
-    public static final long serialVersionUID = 1L;
+    public static final long serialVersionUID = 3L;
 
     @Id
     public UUID              id;
@@ -43,13 +44,29 @@ public class Driver {
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "driver")
     public List<Finish>      finishes;
 
+    /**
+     * The data store's change version when this Driver was last written. Only
+     * the data store sets it, so it is not public and is left out of imports
+     * and exports.
+     */
+    long                     changeVersion;
+
     // The observer handling code
 
     /**
-     * The list of observers for this Driver.
+     * The list of observers for this Driver. It is created when the first
+     * observer is added, so that objects nobody observes do not carry one.
+     */
+    @Transient
+    Set<DriverObserver>      observers        = null;
+
+    /**
+     * The elements of this Driver that have changed since it was last saved.
+     * Like the observers, it is created by the first change, so that objects
+     * that are only read do not carry one.
      */
     @Transient
-    Set<DriverObserver>      observers        = new HashSet<DriverObserver>();
+    EnumSet<DriverElement>   dirtyElements    = null;
 
     /**
      * Adds a new observer.
@@ -58,6 +75,9 @@ public class Driver {
      *            The object to be notified when this Driver changes.
      */
     public void addObserver(DriverObserver observer) {
+        if (observers == null) {
+            observers = new HashSet<DriverObserver>();
+        }
         observers.add(observer);
     }
 
@@ -69,21 +89,59 @@ public class Driver {
      *            changes.
      */
     public void removeObserver(DriverObserver observer) {
-        observers.remove(observer);
+        if (observers != null) {
+            observers.remove(observer);
+        }
     }
 
     /**
-     * Notifies observers that this Driver has changed.
+     * Records that this Driver has changed, and notifies its observers.
      * 
      * @param whatChanged
      *            What element in the driver has changed.
      */
     public void notify(DriverElement whatChanged) {
+        if (dirtyElements == null) {
+            dirtyElements = EnumSet.of(whatChanged);
+        } else {
+            dirtyElements.add(whatChanged);
+        }
+        if (observers == null) {
+            return;
+        }
         for (DriverObserver observer : observers) {
             observer.driverChanged(this, whatChanged);
         }
     }
 
+    /**
+     * @return the elements of this Driver that have changed since it was last
+     *         saved; empty if it has not changed.
+     */
+    public Set<DriverElement> getDirtyElements() {
+        if (dirtyElements == null) {
+            return EnumSet.noneOf(DriverElement.class);
+        }
+        return EnumSet.copyOf(dirtyElements);
+    }
+
+    /**
+     * @return true if this Driver has changed since it was last saved.
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#isDirty()
+     */
+    public boolean isDirty() {
+        return dirtyElements != null && !dirtyElements.isEmpty();
+    }
+
+    /**
+     * Forgets the changes made to this Driver, once they have been saved.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#clearDirty()
+     */
+    public void clearDirty() {
+        dirtyElements = null;
+    }
+
     /**
      * @return the name
      */
@@ -269,6 +327,13 @@ public class Driver {
         this.id = id;
     }
 
+    /**
+     * @return the changeVersion
+     */
+    public long getChangeVersion() {
+        return changeVersion;
+    }
+
     /**
      * Returns true if "other" is a Driver and both Drivers have the same ID.
      * 
@@ -1,17 +1,59 @@
 package com.github.jearls.SPRaceTracker.data;
 
 import java.io.File;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
 
-import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.EbeanServerFactory;
+import com.avaje.ebean.Expression;
+import com.avaje.ebean.ExpressionFactory;
 import com.avaje.ebean.ExpressionList;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.QueryEachConsumer;
+import com.avaje.ebean.SqlQuery;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.TransactionCallbackAdapter;
+import com.avaje.ebean.bean.BeanCollection;
+import com.avaje.ebean.bean.EntityBean;
 import com.avaje.ebean.config.DataSourceConfig;
+import com.avaje.ebean.config.dbplatform.DatabasePlatform;
+import com.avaje.ebean.config.dbplatform.SqlLimitRequest;
+import com.avaje.ebean.config.dbplatform.SqlLimitResponse;
+import com.avaje.ebean.config.dbplatform.SqlLimiter;
+import com.avaje.ebean.config.PersistBatch;
+import com.avaje.ebean.event.BeanPersistAdapter;
+import com.avaje.ebean.event.BeanPersistRequest;
 import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.deploy.BeanProperty;
+import com.avaje.ebeaninternal.server.deploy.BeanPropertyAssocOne;
+import com.github.jearls.SPRaceTracker.data.DataChange.Operation;
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyInfo;
 
 /**
  * @author jearls
@@ -24,77 +66,1448 @@ public class EBeanDataStore extends DataStore {
     public EbeanServer       ebeanServer;
 
     /**
-     * Initialize an EBean+JavaDB Data Store
+     * The name of the Ebean server used by {@link #EBeanDataStore(File)}.
+     */
+    public static final String DEFAULT_SERVER_NAME = "EBeanDataStore";
+
+    /**
+     * The SQL state of the exception Derby throws when a database has been
+     * shut down.
+     */
+    static final String      DERBY_SHUTDOWN_STATE = "08006";
+
+    /**
+     * The SQLState Derby reports when a unique index or constraint would
+     * hold duplicate keys.
+     */
+    static final String      DUPLICATE_KEY_STATE  = "23505";
+
+    /**
+     * Derby's online backup, which also archives the logs needed to roll the
+     * backup forward.
+     */
+    static final String      BACKUP_PROCEDURE     =
+            "CALL SYSCS_UTIL."
+                    + "SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE(?, 1)";
+
+    /**
+     * Derby's full compress, which rebuilds a table and its indexes.
+     */
+    static final String      COMPRESS_PROCEDURE   =
+            "CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)";
+
+    /**
+     * Derby's in-place compress, which purges deleted rows, moves rows
+     * towards the start of the table and returns the free pages at its end.
+     */
+    static final String      INPLACE_COMPRESS_PROCEDURE =
+            "CALL SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE(?, ?, 1, 1, 1)";
+
+    /**
+     * Derby's statistics refresh, for all of a table's indexes.
+     */
+    static final String      UPDATE_STATISTICS_PROCEDURE =
+            "CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(?, ?, NULL)";
+
+    /**
+     * The table the change log is kept in.
+     */
+    static final String      CHANGE_TABLE         = "data_change";
+
+    /**
+     * The field of a data class that holds its change version.
+     */
+    static final String      CHANGE_VERSION_FIELD = "changeVersion";
+
+    /**
+     * The JDBC URL of the Derby database, without any attributes.
+     */
+    final String             dbURL;
+
+    /**
+     * The default number of statements sent to the database in a single JDBC
+     * batch by {@link #saveAll(Collection)} and {@link #deleteAll(Collection)}.
+     */
+    public static final int  DEFAULT_BATCH_SIZE = 100;
+
+    int                      batchSize          = DEFAULT_BATCH_SIZE;
+
+    /**
+     * The largest number of IDs put in a single IN query by
+     * {@link #fetchByIDs(Class, Collection, Collection)}, keeping each
+     * statement well within what Derby will compile.
+     */
+    public static final int  IDS_PER_QUERY      = 500;
+
+    /**
+     * The identity map consulted by {@link #fetchByID(Class, Object)}.
+     */
+    final EntityCache        entityCache        = new EntityCache();
+
+    /**
+     * The query results cache consulted by {@link #fetchByFields(Class, Map)}
+     * and {@link #fetchByField(Class, String, Object)}.
+     */
+    final QueryCache         queryCache         = new QueryCache();
+
+    /**
+     * The caches of a transaction, used in place of the shared caches by the
+     * thread that began it and discarded when it ends.
+     */
+    static class TransactionCaches {
+        final EntityCache entityCache = new EntityCache();
+        final QueryCache  queryCache  = new QueryCache();
+    }
+
+    /**
+     * The caches of the transaction in progress on each thread.
+     */
+    final ThreadLocal<TransactionCaches> transactionCaches =
+            new ThreadLocal<TransactionCaches>();
+
+    /**
+     * The log that slow queries are written to, or null if queries are not
+     * being timed.
+     */
+    volatile SlowQueryLog    slowQueryLog       = null;
+
+    /**
+     * The time, in milliseconds since the epoch, that Ebean last inserted,
+     * updated or deleted an object.
+     */
+    volatile long            lastWriteTime      = System.currentTimeMillis();
+
+    /**
+     * The name the {@link CommitInvalidation} of a transaction is kept under
+     * as a user object of the transaction.
+     */
+    static final String      INVALIDATION_OBJECT = "cacheInvalidation";
+
+    /**
+     * The objects a transaction has written, dropped from the shared caches
+     * again once the transaction commits or rolls back. Until then, another
+     * thread may read an object's committed row and cache it after the
+     * object was first dropped, which would leave the old row cached for good
+     * once the transaction commits.
+     */
+    class CommitInvalidation extends TransactionCallbackAdapter {
+        final Set<EntityCache.Key> written =
+                new LinkedHashSet<EntityCache.Key>();
+
+        void invalidate() {
+            Set<Class<?>> classes = new HashSet<Class<?>>();
+            for (EntityCache.Key key : written) {
+                entityCache.invalidate(key.objectClass, key.id);
+                if (classes.add(key.objectClass)) {
+                    queryCache.invalidateClass(key.objectClass);
+                }
+            }
+        }
+
+        @Override
+        public void postCommit() {
+            invalidate();
+        }
+
+        @Override
+        public void postRollback() {
+            invalidate();
+        }
+    }
+
+    /**
+     * Keeps the caches consistent with the database by dropping every object
+     * Ebean inserts, updates or deletes, including those reached through
+     * cascades, from the shared caches and from those of the writing
+     * thread's transaction. The objects are dropped from the shared caches
+     * again when the transaction ends.
+     */
+    class CacheInvalidator extends BeanPersistAdapter {
+        @Override
+        public boolean isRegisterFor(Class<?> cls) {
+            return true;
+        }
+
+        void invalidate(BeanPersistRequest<?> request) {
+            Object bean = request.getBean();
+            entityCache.invalidate(bean.getClass(),
+                    DataObjectUtilities.getId(bean));
+            queryCache.invalidateClass(bean.getClass());
+            TransactionCaches local = transactionCaches.get();
+            if (local != null) {
+                local.entityCache.invalidate(bean.getClass(),
+                        DataObjectUtilities.getId(bean));
+                local.queryCache.invalidateClass(bean.getClass());
+            }
+            Transaction txn = request.getTransaction();
+            if (txn != null) {
+                CommitInvalidation pending =
+                        (CommitInvalidation) txn
+                                .getUserObject(INVALIDATION_OBJECT);
+                if (pending == null) {
+                    pending = new CommitInvalidation();
+                    txn.putUserObject(INVALIDATION_OBJECT, pending);
+                    txn.register(pending);
+                }
+                pending.written.add(new EntityCache.Key(bean.getClass(),
+                        DataObjectUtilities.getId(bean)));
+            }
+            lastWriteTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void postInsert(BeanPersistRequest<?> request) {
+            invalidate(request);
+        }
+
+        @Override
+        public void postUpdate(BeanPersistRequest<?> request) {
+            invalidate(request);
+        }
+
+        @Override
+        public void postDelete(BeanPersistRequest<?> request) {
+            invalidate(request);
+        }
+    }
+
+    /**
+     * The last change version handed out. Guarded by inFlightVersions.
+     */
+    long                     lastVersion        = 0;
+
+    /**
+     * The highest change version committed. Versions handed out above it and
+     * rolled back are not in the change log, and are handed out again if the
+     * data store is reopened, so they are never reported. Guarded by
+     * inFlightVersions.
+     */
+    long                     committedVersion   = 0;
+
+    /**
+     * The change versions handed out to transactions that have not committed
+     * or rolled back yet. Guarded by itself.
+     */
+    final TreeSet<Long>      inFlightVersions   = new TreeSet<Long>();
+
+    /**
+     * Hands out the next change version, holding it in flight until the
+     * transaction that writes it ends.
+     */
+    long nextVersion(Transaction txn) {
+        final long version;
+        synchronized (inFlightVersions) {
+            lastVersion += 1;
+            version = lastVersion;
+            inFlightVersions.add(version);
+        }
+        txn.register(new TransactionCallbackAdapter() {
+            @Override
+            public void postCommit() {
+                releaseVersion(version, true);
+            }
+
+            @Override
+            public void postRollback() {
+                releaseVersion(version, false);
+            }
+        });
+        return version;
+    }
+
+    void releaseVersion(long version, boolean committed) {
+        synchronized (inFlightVersions) {
+            inFlightVersions.remove(version);
+            if (committed) {
+                committedVersion = Math.max(committedVersion, version);
+            }
+        }
+    }
+
+    /**
+     * Returns the latest committed change version at or below which every
+     * transaction has committed or rolled back, so that no change at or
+     * below it can still appear in the change log.
+     */
+    long settledVersion() {
+        synchronized (inFlightVersions) {
+            if (inFlightVersions.isEmpty()) {
+                return committedVersion;
+            }
+            return Math.min(committedVersion, inFlightVersions.first() - 1);
+        }
+    }
+
+    /**
+     * Records every insert, update and delete Ebean makes in the change log,
+     * in the same transaction as the write, and stamps inserted and updated
+     * objects with their change version.
+     */
+    class ChangeRecorder extends BeanPersistAdapter {
+        @Override
+        public boolean isRegisterFor(Class<?> cls) {
+            return true;
+        }
+
+        long record(BeanPersistRequest<?> request, Operation operation) {
+            Object bean = request.getBean();
+            Transaction txn = request.getTransaction();
+            long version = nextVersion(txn);
+            try {
+                PreparedStatement stmt =
+                        txn.getConnection().prepareStatement(
+                                "insert into " + CHANGE_TABLE
+                                        + " (version, data_class, object_id,"
+                                        + " operation) values (?, ?, ?, ?)");
+                try {
+                    stmt.setLong(1, version);
+                    stmt.setString(2, bean.getClass().getName());
+                    stmt.setString(3,
+                            String.valueOf(DataObjectUtilities.getId(bean)));
+                    stmt.setString(4, operation.name());
+                    stmt.executeUpdate();
+                } finally {
+                    stmt.close();
+                }
+            } catch (SQLException e) {
+                throw new PersistenceException(e);
+            }
+            return version;
+        }
+
+        void stamp(BeanPersistRequest<?> request, long version) {
+            Object bean = request.getBean();
+            BeanProperty property =
+                    ((SpiEbeanServer) request.getEbeanServer())
+                            .getBeanDescriptor(bean.getClass())
+                            .findBeanProperty(CHANGE_VERSION_FIELD);
+            if (property != null) {
+                property.setValueIntercept((EntityBean) bean, version);
+            }
+        }
+
+        @Override
+        public boolean preInsert(BeanPersistRequest<?> request) {
+            stamp(request, record(request, Operation.INSERT));
+            return true;
+        }
+
+        @Override
+        public boolean preUpdate(BeanPersistRequest<?> request) {
+            stamp(request, record(request, Operation.UPDATE));
+            return true;
+        }
+
+        @Override
+        public boolean preDelete(BeanPersistRequest<?> request) {
+            record(request, Operation.DELETE);
+            return true;
+        }
+    }
+
+    /**
+     * Limits query results with Derby's OFFSET / FETCH clauses. Ebean has no
+     * Derby platform of its own, and the generic platform's LIMIT clause is
+     * not understood by Derby.
+     */
+    static class DerbySqlLimiter implements SqlLimiter {
+        public SqlLimitResponse limit(SqlLimitRequest request) {
+            StringBuilder sql = new StringBuilder("select ");
+            if (request.isDistinct()) {
+                sql.append("distinct ");
+            }
+            sql.append(request.getDbSql());
+            if (request.getFirstRow() > 0) {
+                sql.append(" offset ").append(request.getFirstRow())
+                        .append(" rows");
+            }
+            if (request.getMaxRows() > 0) {
+                sql.append(" fetch first ").append(request.getMaxRows())
+                        .append(" rows only");
+            }
+            return new SqlLimitResponse(request.getDbPlatform().completeSql(
+                    sql.toString(), request.getOrmQuery()), false);
+        }
+    }
+
+    /**
+     * Ebean's generic database platform, with Derby's way of limiting query
+     * results.
+     */
+    static class DerbyPlatform extends DatabasePlatform {
+        DerbyPlatform() {
+            super();
+            this.sqlLimiter = new DerbySqlLimiter();
+        }
+    }
+
+    /**
+     * Initialize an EBean+JavaDB Data Store as the default Ebean server.
+     * 
+     * @param dbDir
+     *            The directory in which to store the database.
+     * @throws DataStoreException
+     *             if an error occurs while initializing the EBean data store.
+     */
+    public EBeanDataStore(File dbDir) throws DataStoreException {
+        this(dbDir, DEFAULT_SERVER_NAME);
+    }
+
+    /**
+     * Initialize an EBean+JavaDB Data Store with its own Ebean server name,
+     * so that several databases can be open at once. Only the data store
+     * named {@link #DEFAULT_SERVER_NAME} becomes Ebean's default server.
+     * 
+     * @param dbDir
+     *            The directory in which to store the database.
+     * @param serverName
+     *            The name of the Ebean server, which must be unique among the
+     *            data stores open at once.
+     * @throws DataStoreException
+     *             if an error occurs while initializing the EBean data store.
+     */
+    public EBeanDataStore(File dbDir, String serverName)
+            throws DataStoreException {
+        super();
+        dbURL = "jdbc:derby:" + dbDir.getAbsolutePath();
+        ebeanConfig = new ServerConfig();
+        ebeanConfig.setName(serverName);
+        DataSourceConfig localDB = new DataSourceConfig();
+        localDB.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        localDB.setUsername("");
+        localDB.setPassword("");
+        if (dbDir.isDirectory()) {
+            localDB.setUrl(dbURL);
+        } else {
+            localDB.setUrl(dbURL + ";create=true");
+            ebeanConfig.setDdlGenerate(true);
+            ebeanConfig.setDdlRun(true);
+        }
+        ebeanConfig.setDataSourceConfig(localDB);
+        ebeanConfig.setDatabasePlatform(new DerbyPlatform());
+        ebeanConfig.setUpdateChangesOnly(true);
+        ebeanConfig.setDefaultServer(DEFAULT_SERVER_NAME.equals(serverName));
+        ebeanConfig.add(new CacheInvalidator());
+        ebeanConfig.add(new ChangeRecorder());
+
+        try {
+            ebeanServer = EbeanServerFactory.create(ebeanConfig);
+        } catch (Exception e) {
+            throw new DataStoreException(e);
+        }
+        createIdentityIndexes();
+        createChangeLog();
+    }
+
+    /**
+     * Returns the database column that holds a field of a data class. For a
+     * reference to another data class, this is the foreign key column.
+     * 
+     * @param descriptor
+     *            The Ebean descriptor of the data class.
+     * @param field
+     *            The field name.
+     * @return The column name, or null if the field is not a mapped column.
+     */
+    static String columnName(BeanDescriptor<?> descriptor, String field) {
+        BeanProperty property = descriptor.findBeanProperty(field);
+        if (property instanceof BeanPropertyAssocOne) {
+            return ((BeanPropertyAssocOne<?>) property).getImportedId()
+                    .getDbColumn();
+        } else if (property != null && !property.isTransient()) {
+            return property.getDbColumn();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the database column names for a data class's @IdentifiedBy
+     * fields, in order.
+     * 
+     * @param descriptor
+     *            The Ebean descriptor of the data class.
+     * @return The column names, or null if the class has no @IdentifiedBy
+     *         annotation or one of its fields is not a mapped column.
+     */
+    static List<String> identityColumns(BeanDescriptor<?> descriptor) {
+        IdentifiedBy identity =
+                descriptor.getBeanType().getAnnotation(IdentifiedBy.class);
+        if (identity == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<String>();
+        for (String field : identity.value()) {
+            String column = columnName(descriptor, field);
+            if (column == null) {
+                return null;
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    /**
+     * Checks whether a table already has an index over exactly the given
+     * columns, in the given order.
+     */
+    static boolean hasIndex(DatabaseMetaData metaData, String table,
+                            List<String> columns) throws SQLException {
+        Map<String, List<String>> indexes = new HashMap<String, List<String>>();
+        ResultSet rs =
+                metaData.getIndexInfo(null, null, table.toUpperCase(), false,
+                        false);
+        try {
+            while (rs.next()) {
+                String indexName = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (indexName == null || column == null) {
+                    continue;
+                }
+                List<String> indexColumns = indexes.get(indexName);
+                if (indexColumns == null) {
+                    indexColumns = new ArrayList<String>();
+                    indexes.put(indexName, indexColumns);
+                }
+                int position = rs.getInt("ORDINAL_POSITION");
+                while (indexColumns.size() < position) {
+                    indexColumns.add(null);
+                }
+                indexColumns.set(position - 1, column.toUpperCase());
+            }
+        } finally {
+            rs.close();
+        }
+        List<String> wanted = new ArrayList<String>();
+        for (String column : columns) {
+            wanted.add(column.toUpperCase());
+        }
+        return indexes.containsValue(wanted);
+    }
+
+    /**
+     * Checks whether a table has a unique index with the given name.
+     */
+    static boolean isUniqueIndex(DatabaseMetaData metaData, String table,
+                                 String indexName) throws SQLException {
+        ResultSet rs =
+                metaData.getIndexInfo(null, null, table.toUpperCase(), true,
+                        false);
+        try {
+            while (rs.next()) {
+                if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        } finally {
+            rs.close();
+        }
+        return false;
+    }
+
+    /**
+     * <p>
+     * Creates an index over the @IdentifiedBy fields of every data class that
+     * does not already have one, so that the importer's identity lookups
+     * (such as Race by season and raceNumber) do not scan the whole table.
+     * </p>
+     * <p>
+     * This runs every time the data store is opened: right after the DDL has
+     * created the tables of a new database, and as a migration step for
+     * databases created before the indexes existed.
+     * </p>
+     * <p>
+     * Since @IdentifiedBy fields identify an object, each index backs a
+     * UNIQUE constraint. Unlike a unique index, which treats NULLs as equal,
+     * the constraint allows any number of keys with a NULL in them, such as
+     * the Finishes an importer has saved but not yet linked to their Race.
+     * Unique indexes made by earlier versions are replaced. If existing data
+     * has duplicates, a non-unique index is created instead and a warning is
+     * printed.
+     * </p>
+     * 
+     * @return The number of indexes created.
+     * @throws DataStoreException
+     *             if the database metadata could not be read or an index could
+     *             not be created.
+     */
+    public int createIdentityIndexes() throws DataStoreException {
+        int created = 0;
+        Transaction txn = this.ebeanServer.createTransaction();
+        try {
+            Connection connection = txn.getConnection();
+            DatabaseMetaData metaData = connection.getMetaData();
+            SpiEbeanServer server = (SpiEbeanServer) this.ebeanServer;
+            for (BeanDescriptor<?> descriptor : server.getBeanDescriptors()) {
+                List<String> columns = identityColumns(descriptor);
+                String table = descriptor.getBaseTable();
+                if (columns == null || table == null) {
+                    continue;
+                }
+                String indexName = "ix_" + table + "_identity";
+                String indexColumns = propertyList(columns);
+                Statement stmt = connection.createStatement();
+                try {
+                    if (isUniqueIndex(metaData, table, indexName)) {
+                        stmt.execute("drop index " + indexName);
+                    }
+                    if (hasIndex(metaData, table, columns)) {
+                        continue;
+                    }
+                    try {
+                        stmt.execute("alter table " + table
+                                + " add constraint uq_" + table
+                                + "_identity unique (" + indexColumns + ")");
+                    } catch (SQLException e) {
+                        if (!DUPLICATE_KEY_STATE.equals(e.getSQLState())) {
+                            throw e;
+                        }
+                        System.err.println("Duplicate identities in " + table
+                                + "; creating a non-unique index: " + e);
+                        stmt.execute("create index " + indexName + " on "
+                                + table + " (" + indexColumns + ")");
+                    }
+                } finally {
+                    stmt.close();
+                }
+                created += 1;
+            }
+            txn.commit();
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            txn.end();
+        }
+        return created;
+    }
+
+    /**
+     * <p>
+     * Creates the change log table if it does not exist, adds a change
+     * version column to every data class's table that lacks one, and carries
+     * on handing out change versions from the last one logged.
+     * </p>
+     * <p>
+     * Like {@link #createIdentityIndexes()}, this runs every time the data
+     * store is opened, so databases created before the change log existed
+     * are migrated. Objects written before then have change version 0.
+     * </p>
+     * 
+     * @throws DataStoreException
+     *             if the database metadata could not be read or the database
+     *             could not be altered.
+     */
+    void createChangeLog() throws DataStoreException {
+        Transaction txn = this.ebeanServer.createTransaction();
+        try {
+            Connection connection = txn.getConnection();
+            DatabaseMetaData metaData = connection.getMetaData();
+            Statement stmt = connection.createStatement();
+            try {
+                if (!hasTable(metaData, CHANGE_TABLE)) {
+                    stmt.execute("create table " + CHANGE_TABLE
+                            + " (version bigint not null primary key,"
+                            + " data_class varchar(255) not null,"
+                            + " object_id varchar(255) not null,"
+                            + " operation varchar(6) not null)");
+                }
+                SpiEbeanServer server = (SpiEbeanServer) this.ebeanServer;
+                for (BeanDescriptor<?> descriptor : server.getBeanDescriptors()) {
+                    String column =
+                            columnName(descriptor, CHANGE_VERSION_FIELD);
+                    String table = descriptor.getBaseTable();
+                    if (column == null || table == null
+                            || hasColumn(metaData, table, column)) {
+                        continue;
+                    }
+                    stmt.execute("alter table " + table + " add column "
+                            + column + " bigint not null default 0");
+                }
+                ResultSet rs =
+                        stmt.executeQuery("select max(version) from "
+                                + CHANGE_TABLE);
+                try {
+                    rs.next();
+                    synchronized (inFlightVersions) {
+                        lastVersion = rs.getLong(1);
+                        committedVersion = lastVersion;
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                stmt.close();
+            }
+            txn.commit();
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            txn.end();
+        }
+    }
+
+    /**
+     * Checks whether a table exists in the current schema.
+     */
+    static boolean hasTable(DatabaseMetaData metaData, String table)
+            throws SQLException {
+        ResultSet rs =
+                metaData.getTables(null,
+                        currentSchema(metaData.getConnection()),
+                        table.toUpperCase(), null);
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Checks whether a table in the current schema has a column.
+     */
+    static boolean hasColumn(DatabaseMetaData metaData, String table,
+                             String column) throws SQLException {
+        ResultSet rs =
+                metaData.getColumns(null,
+                        currentSchema(metaData.getConnection()),
+                        table.toUpperCase(), column.toUpperCase());
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Walks the objects that saving a data object would write: the object
+     * itself and the objects reached through its cascading relations,
+     * collecting those whose notify methods have recorded changes.
+     * Collections that have not been loaded are not walked, since nothing in
+     * them can have changed.
+     * 
+     * @param dataObject
+     *            The object to walk from.
+     * @param visited
+     *            The objects already walked.
+     * @param changed
+     *            Receives the changed objects, to be marked clean once they
+     *            have been saved.
+     * @return true if saving the object would write something: an object
+     *         reached is new, or has changed.
+     */
+    boolean collectChanged(Object dataObject, Set<Object> visited,
+                           List<DirtyTracked> changed) {
+        if (!visited.add(dataObject)) {
+            return false;
+        }
+        if (!(dataObject instanceof EntityBean)
+                || !(dataObject instanceof DirtyTracked)) {
+            return true;
+        }
+        boolean write =
+                ((EntityBean) dataObject)._ebean_getIntercept().isNewOrDirty();
+        DirtyTracked tracked = (DirtyTracked) dataObject;
+        if (tracked.isDirty()) {
+            changed.add(tracked);
+            write = true;
+        }
+        DataClassInfo info = DataClassInfo.forClass(dataObject.getClass());
+        for (PropertyInfo prop : info.properties) {
+            Object value = info.get(dataObject, prop);
+            if (value == null) {
+                continue;
+            } else if (prop.isToMany() && isModified(value)) {
+                write = true;
+            }
+            if (!prop.cascadeSave) {
+                continue;
+            } else if (!prop.isToMany()) {
+                write |= collectChanged(value, visited, changed);
+            } else if (!(value instanceof BeanCollection)
+                    || ((BeanCollection<?>) value).isPopulated()) {
+                for (Object related : (Collection<?>) value) {
+                    write |= collectChanged(related, visited, changed);
+                }
+            }
+        }
+        return write;
+    }
+
+    /**
+     * Checks whether Ebean has recorded additions to or removals from a
+     * collection since it was loaded. Ebean writes these, such as the rows of
+     * a many-to-many join table, when the owning object is saved, whether or
+     * not the owner's notify methods recorded the change.
+     */
+    static boolean isModified(Object collection) {
+        if (!(collection instanceof BeanCollection)) {
+            return false;
+        }
+        BeanCollection<?> beans = (BeanCollection<?>) collection;
+        Set<?> additions = beans.getModifyAdditions();
+        Set<?> removals = beans.getModifyRemovals();
+        return (additions != null && !additions.isEmpty())
+                || (removals != null && !removals.isEmpty());
+    }
+
+    /**
+     * Marks saved objects clean. If a transaction is in progress they are
+     * only marked clean when it commits, so that a rolled back save is
+     * written again the next time.
+     */
+    void markSaved(final List<DirtyTracked> changed) {
+        Transaction txn = activeTransaction();
+        if (txn == null) {
+            for (DirtyTracked tracked : changed) {
+                tracked.clearDirty();
+            }
+        } else if (!changed.isEmpty()) {
+            txn.register(new TransactionCallbackAdapter() {
+                @Override
+                public void postCommit() {
+                    for (DirtyTracked tracked : changed) {
+                        tracked.clearDirty();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Save the object back to the EbeanServer. Ebean only updates the columns
+     * of an object that have changed; if neither the object nor anything
+     * that cascades from it is new or has changed, nothing is sent to the
+     * database at all.
+     * 
+     * @param o
+     *            The object to save.
+     * @throws DataStoreException
+     *             if the EbeanServer generated an OptimisticLockException,
+     *             or another PersistenceException such as a duplicate
+     *             identity.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     */
+    @Override
+    public void save(Object o) throws DataStoreException {
+        List<DirtyTracked> changed = new ArrayList<DirtyTracked>();
+        Set<Object> visited = DataObjectUtilities.newVisitedSet();
+        if (!collectChanged(o, visited, changed)) {
+            return;
+        }
+        try {
+            this.ebeanServer.save(o);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+        markSaved(changed);
+    }
+
+    /**
+     * Delete the object from the EbeanServer.
+     * 
+     * @param o
+     *            The object to delete.
+     * @throws DataStoreException
+     *             if the EbeanServer generated an OptimisticLockException,
+     *             or another PersistenceException such as a duplicate
+     *             identity.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Object o) throws DataStoreException {
+        try {
+            this.ebeanServer.delete(o);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * @return the number of statements sent per JDBC batch by saveAll and
+     *         deleteAll.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of statements to send per JDBC batch by saveAll
+     *            and deleteAll.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the identity map used by fetchByID, for its hit and miss
+     *         counters and its size.
+     */
+    public EntityCache getEntityCache() {
+        return entityCache;
+    }
+
+    /**
+     * @return the query results cache used by fetchByFields and fetchByField,
+     *         for its hit and miss counters and its size.
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return the log that slow queries are written to, or null if queries
+     *         are not being timed
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Starts or stops logging slow queries. While a log is set, every query
+     * is timed, and those that take at least the log's threshold are written
+     * to it with their SQL and bind values. The log is not closed when it is
+     * replaced.
+     * 
+     * @param slowQueryLog
+     *            the log to write slow queries to, or null to stop timing
+     *            queries
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Returns the time a query is starting at, or 0 if queries are not being
+     * timed.
+     */
+    long queryStarted() {
+        return (slowQueryLog == null) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Passes a finished query to the slow query log, if queries are being
+     * timed.
+     */
+    void queryFinished(long started, String operation, Class<?> objectClass,
+                       Query<?> query, Collection<?> binds, int rows) {
+        if (started != 0) {
+            queryFinished(started, operation, objectClass,
+                    query.getGeneratedSql(), binds, rows);
+        }
+    }
+
+    /**
+     * Passes a finished raw SQL query to the slow query log, if queries are
+     * being timed.
+     */
+    void queryFinished(long started, String operation, Class<?> objectClass,
+                       String sql, Collection<?> binds, int rows) {
+        SlowQueryLog log = slowQueryLog;
+        if (log != null && started != 0) {
+            log.log(operation + "(" + objectClass.getSimpleName() + ")", sql,
+                    binds, rows, System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Discards all cached objects and query results. This is done whenever a
+     * transaction is rolled back, since objects written in the transaction no
+     * longer match the database.
+     */
+    void clearCaches() {
+        entityCache.clear();
+        queryCache.clear();
+    }
+
+    /**
+     * Returns the transaction in progress on the current thread, if any.
+     * 
+     * @return The active transaction, or null if there is none.
+     */
+    Transaction activeTransaction() {
+        Transaction txn = this.ebeanServer.currentTransaction();
+        if (txn != null && txn.isActive()) {
+            return txn;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the entity cache the current thread should use. While a
+     * transaction is in progress the shared cache is bypassed, since objects
+     * the transaction reads may hold its uncommitted writes, which must not
+     * be served to other threads, and its own reads must see those writes
+     * rather than what other threads have cached. The transaction uses a
+     * cache of its own instead, discarded when it ends.
+     * 
+     * @return The cache to use, or null if the current thread is in a
+     *         transaction that was not begun through this DataStore.
+     */
+    EntityCache currentEntityCache() {
+        if (activeTransaction() == null) {
+            return entityCache;
+        }
+        TransactionCaches local = transactionCaches.get();
+        return (local == null) ? null : local.entityCache;
+    }
+
+    /**
+     * Returns the query cache the current thread should use, as
+     * {@link #currentEntityCache()} does for the entity cache.
+     * 
+     * @return The cache to use, or null if the current thread is in a
+     *         transaction that was not begun through this DataStore.
+     */
+    QueryCache currentQueryCache() {
+        if (activeTransaction() == null) {
+            return queryCache;
+        }
+        TransactionCaches local = transactionCaches.get();
+        return (local == null) ? null : local.queryCache;
+    }
+
+    /**
+     * Begins an Ebean transaction on the current thread. Saves, deletes and
+     * fetches made by this thread use that transaction until it is committed
+     * or rolled back.
+     * 
+     * @throws DataStoreException
+     *             if a transaction is already in progress on this thread.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#beginTransaction()
+     */
+    @Override
+    public void beginTransaction() throws DataStoreException {
+        if (activeTransaction() != null) {
+            throw new DataStoreException("Transaction already in progress");
+        }
+        try {
+            this.ebeanServer.beginTransaction();
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+        transactionCaches.set(new TransactionCaches());
+    }
+
+    /**
+     * Commits the Ebean transaction in progress on the current thread.
+     * 
+     * @throws DataStoreException
+     *             if no transaction is in progress, or if the commit failed.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#commitTransaction()
+     */
+    @Override
+    public void commitTransaction() throws DataStoreException {
+        if (activeTransaction() == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        try {
+            this.ebeanServer.commitTransaction();
+        } catch (PersistenceException e) {
+            clearCaches();
+            throw new DataStoreException(e);
+        } finally {
+            this.ebeanServer.endTransaction();
+            transactionCaches.remove();
+        }
+    }
+
+    /**
+     * Rolls back the Ebean transaction in progress on the current thread.
+     * 
+     * @throws DataStoreException
+     *             if no transaction is in progress, or if the rollback failed.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#rollbackTransaction()
+     */
+    @Override
+    public void rollbackTransaction() throws DataStoreException {
+        if (activeTransaction() == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        try {
+            this.ebeanServer.rollbackTransaction();
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            this.ebeanServer.endTransaction();
+            transactionCaches.remove();
+            clearCaches();
+        }
+    }
+
+    /**
+     * Shuts down the Ebean server and its connection pool, then shuts down
+     * the Derby database so that its files and memory are released and it
+     * can be opened again, by this or another process.
+     * 
+     * @throws DataStoreException
+     *             if Derby could not shut the database down.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public void close() throws DataStoreException {
+        clearCaches();
+        try {
+            this.ebeanServer.shutdown(true, false);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+        try {
+            DriverManager.getConnection(dbURL + ";shutdown=true").close();
+        } catch (SQLException e) {
+            // Derby reports a successful shutdown of a single database with
+            // this SQL state.
+            if (!DERBY_SHUTDOWN_STATE.equals(e.getSQLState())) {
+                throw new DataStoreException(e);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copies the database into a directory using Derby's online backup. The
+     * database stays open for reading and writing while it is copied; only
+     * transactions with unlogged operations hold the backup up. The copy is
+     * written to a subdirectory named after the database directory.
+     * </p>
+     * <p>
+     * The backup also turns on log archiving, so that the newest backup can
+     * be rolled forward to the last committed transaction by
+     * {@link #restore(File, File, boolean)}. Archived logs that are only
+     * needed by older backups are deleted.
+     * </p>
+     * 
+     * @param directory
+     *            The directory to write the backup in.
+     * @throws DataStoreException
+     *             if the backup failed.
+     */
+    public void backup(File directory) throws DataStoreException {
+        Transaction txn = this.ebeanServer.createTransaction();
+        try {
+            CallableStatement call =
+                    txn.getConnection().prepareCall(BACKUP_PROCEDURE);
+            try {
+                call.setString(1, directory.getAbsolutePath());
+                call.execute();
+            } finally {
+                call.close();
+            }
+            txn.commit();
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            txn.end();
+        }
+    }
+
+    /**
+     * Replaces a database with a backup made by {@link #backup(File)}. The
+     * database must not be open.
+     * 
+     * @param dbDir
+     *            The directory of the database to restore.
+     * @param backupDirectory
+     *            The directory the backup was written in.
+     * @param rollForward
+     *            true to also replay the archived logs in the database
+     *            directory, recovering every transaction committed since the
+     *            backup; this needs the newest backup and the database's own
+     *            log directory. false to restore the database as it was when
+     *            the backup was made.
+     * @throws DataStoreException
+     *             if the database could not be restored.
+     */
+    public static void restore(File dbDir, File backupDirectory,
+                               boolean rollForward) throws DataStoreException {
+        String url = "jdbc:derby:" + dbDir.getAbsolutePath();
+        String backup =
+                new File(backupDirectory, dbDir.getName()).getAbsolutePath();
+        try {
+            DriverManager.getConnection(
+                    url + (rollForward ? ";rollForwardRecoveryFrom="
+                            : ";restoreFrom=") + backup).close();
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        }
+        try {
+            DriverManager.getConnection(url + ";shutdown=true").close();
+        } catch (SQLException e) {
+            if (!DERBY_SHUTDOWN_STATE.equals(e.getSQLState())) {
+                throw new DataStoreException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, that an object was
+     *         last inserted, updated or deleted; the time the data store was
+     *         opened if none has been
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * Returns the number of pages a data class's table and its indexes
+     * occupy in the database files.
      * 
-     * @param dbDir
-     *            The directory in which to store the database.
+     * @param dataClass
+     *            The data class.
+     * @return The number of pages in use, plus the free pages that have not
+     *         been returned to the operating system.
      * @throws DataStoreException
-     *             if an error occurs while initializing the EBean data store.
+     *             if the space could not be read.
      */
-    public EBeanDataStore(File dbDir) throws DataStoreException {
-        super();
-        ebeanConfig = new ServerConfig();
-        ebeanConfig.setName("EBeanDataStore");
-        DataSourceConfig localDB = new DataSourceConfig();
-        localDB.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
-        localDB.setUsername("");
-        localDB.setPassword("");
-        if (dbDir.isDirectory()) {
-            localDB.setUrl("jdbc:derby:" + dbDir.getAbsolutePath());
-        } else {
-            localDB.setUrl("jdbc:derby:" + dbDir.getAbsolutePath()
-                    + ";create=true");
-            ebeanConfig.setDdlGenerate(true);
-            ebeanConfig.setDdlRun(true);
+    public long allocatedPages(Class<?> dataClass) throws DataStoreException {
+        Transaction txn = this.ebeanServer.createTransaction();
+        try {
+            long pages = allocatedPages(txn.getConnection(), dataClass);
+            txn.commit();
+            return pages;
+        } catch (SQLException e) {
+            throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            txn.end();
         }
-        ebeanConfig.setDataSourceConfig(localDB);
-        ebeanConfig.setDefaultServer(true);
+    }
 
+    /**
+     * Reads the pages allocated to a data class's table and indexes from
+     * Derby's SPACE_TABLE diagnostic table.
+     */
+    long allocatedPages(Connection connection, Class<?> dataClass)
+            throws SQLException {
+        PreparedStatement stmt =
+                connection.prepareStatement("select sum(numallocatedpages"
+                        + " + numfreepages)"
+                        + " from table (syscs_diag.space_table(?, ?)) s");
         try {
-            ebeanServer = EbeanServerFactory.create(ebeanConfig);
-        } catch (Exception e) {
+            stmt.setString(1, currentSchema(connection));
+            stmt.setString(2, tableName(dataClass));
+            ResultSet rs = stmt.executeQuery();
+            try {
+                return rs.next() ? rs.getLong(1) : 0;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Returns the schema that unqualified table names are in.
+     */
+    static String currentSchema(Connection connection) throws SQLException {
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("values current schema");
+            try {
+                rs.next();
+                return rs.getString(1);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Returns the name Derby knows a data class's table by, which is upper
+     * case since Ebean does not quote it.
+     */
+    String tableName(Class<?> dataClass) {
+        SpiEbeanServer server = (SpiEbeanServer) this.ebeanServer;
+        return server.getBeanDescriptor(dataClass).getBaseTable()
+                .toUpperCase();
+    }
+
+    /**
+     * <p>
+     * Compacts a data class's table and its indexes, then refreshes the
+     * statistics of its indexes so that Derby plans queries against the data
+     * as it is now. Space left by deleted and shrunk rows is reclaimed, and
+     * the pages freed are returned to the operating system.
+     * </p>
+     * <p>
+     * A full compress rebuilds the table and its indexes. It reclaims all the
+     * free space, but locks the whole table while it runs, so it is best run
+     * when the data store is idle. An in-place compress only locks the rows
+     * it moves, so the data store can be used while it runs, but it only
+     * reclaims empty pages and the space at the end of the table; space
+     * scattered through partly filled pages stays. Either waits for locks
+     * held by other transactions, and fails if it times out.
+     * </p>
+     * 
+     * @param dataClass
+     *            The data class whose table is compacted.
+     * @param inPlace
+     *            true for an in-place compress, false for a full compress.
+     * @return The number of pages returned to the operating system; 0 if the
+     *         table has as many pages as before, or more.
+     * @throws DataStoreException
+     *             if the table could not be compacted.
+     */
+    public long compactTable(Class<?> dataClass, boolean inPlace)
+            throws DataStoreException {
+        // The space is measured in transactions of its own, since the locks
+        // it takes would hold up the compress.
+        long before = allocatedPages(dataClass);
+        Transaction txn = this.ebeanServer.createTransaction();
+        try {
+            Connection connection = txn.getConnection();
+            String schema = currentSchema(connection);
+            String table = tableName(dataClass);
+            callProcedure(connection, inPlace ? INPLACE_COMPRESS_PROCEDURE
+                    : COMPRESS_PROCEDURE, schema, table);
+            callProcedure(connection, UPDATE_STATISTICS_PROCEDURE, schema,
+                    table);
+            txn.commit();
+        } catch (SQLException e) {
             throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        } finally {
+            txn.end();
+        }
+        // Rows inserted meanwhile, or a rebuilt index, can leave the table
+        // bigger than it was.
+        return Math.max(0, before - allocatedPages(dataClass));
+    }
+
+    /**
+     * Calls a system procedure that takes a schema and table name.
+     */
+    static void callProcedure(Connection connection, String procedure,
+                              String schema, String table)
+            throws SQLException {
+        CallableStatement call = connection.prepareCall(procedure);
+        try {
+            call.setString(1, schema);
+            call.setString(2, table);
+            call.execute();
+        } finally {
+            call.close();
         }
     }
 
     /**
-     * Save the object back to the EbeanServer.
+     * Saves all the objects to the EbeanServer using JDBC statement batching.
+     * If a transaction is already in progress on this thread the objects are
+     * saved as part of it; otherwise they are saved in a transaction of their
+     * own. Objects that would write nothing, because neither they nor
+     * anything that cascades from them is new or has changed, are skipped.
      * 
-     * @param o
-     *            The object to save.
+     * @param objects
+     *            The objects to save.
+     * @return The number of objects saved.
      * @throws DataStoreException
-     *             if the EbeanServer generated an OptimisticLockException.
-     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     *             if the EbeanServer failed to save any of the objects. If
+     *             the objects were saved in a transaction of their own, none
+     *             of them are saved.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#saveAll(java.util.Collection)
      */
     @Override
-    public void save(Object o) throws DataStoreException {
+    public int saveAll(Collection<?> objects) throws DataStoreException {
+        Transaction outer = activeTransaction();
+        Transaction txn =
+                (outer == null) ? this.ebeanServer.beginTransaction() : outer;
+        PersistBatch oldBatch = txn.getBatch();
+        int oldBatchSize = txn.getBatchSize();
         try {
-            this.ebeanServer.save(o);
-        } catch (OptimisticLockException e) {
+            txn.setBatch(PersistBatch.ALL);
+            txn.setBatchSize(batchSize);
+            List<Object> toSave = new ArrayList<Object>();
+            List<DirtyTracked> changed = new ArrayList<DirtyTracked>();
+            Set<Object> visited = DataObjectUtilities.newVisitedSet();
+            for (Object o : objects) {
+                if (collectChanged(o, visited, changed)) {
+                    toSave.add(o);
+                }
+            }
+            int rows = this.ebeanServer.save(toSave, txn);
+            txn.flushBatch();
+            markSaved(changed);
+            if (outer == null) {
+                txn.commit();
+            }
+            return rows;
+        } catch (PersistenceException e) {
+            if (outer == null) {
+                clearCaches();
+            }
             throw new DataStoreException(e);
+        } finally {
+            if (outer == null) {
+                txn.end();
+            } else {
+                txn.setBatch(oldBatch);
+                txn.setBatchSize(oldBatchSize);
+            }
         }
     }
 
     /**
-     * Delete the object from the EbeanServer.
+     * Deletes all the objects from the EbeanServer using JDBC statement
+     * batching. If a transaction is already in progress on this thread the
+     * objects are deleted as part of it; otherwise they are deleted in a
+     * transaction of their own.
      * 
-     * @param o
-     *            The object to delete.
+     * @param objects
+     *            The objects to delete.
+     * @return The number of objects deleted.
      * @throws DataStoreException
-     *             if the EbeanServer generated an OptimisticLockException.
-     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     *             if the EbeanServer failed to delete any of the objects. If
+     *             the objects were deleted in a transaction of their own, none
+     *             of them are deleted.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#deleteAll(java.util.Collection)
      */
     @Override
-    public void delete(Object o) throws DataStoreException {
+    public int deleteAll(Collection<?> objects) throws DataStoreException {
+        Transaction outer = activeTransaction();
+        Transaction txn =
+                (outer == null) ? this.ebeanServer.beginTransaction() : outer;
+        PersistBatch oldBatch = txn.getBatch();
+        int oldBatchSize = txn.getBatchSize();
         try {
-            this.ebeanServer.delete(o);
-        } catch (OptimisticLockException e) {
+            txn.setBatch(PersistBatch.ALL);
+            txn.setBatchSize(batchSize);
+            int rows = this.ebeanServer.delete(objects.iterator(), txn);
+            txn.flushBatch();
+            if (outer == null) {
+                txn.commit();
+            }
+            return rows;
+        } catch (PersistenceException e) {
+            if (outer == null) {
+                clearCaches();
+            }
             throw new DataStoreException(e);
+        } finally {
+            if (outer == null) {
+                txn.end();
+            } else {
+                txn.setBatch(oldBatch);
+                txn.setBatchSize(oldBatchSize);
+            }
         }
     }
 
     /**
-     * Fetches an object from the ebeanServer.
+     * Fetches an object from the entity cache, or from the ebeanServer if it
+     * is not cached.
      * 
      * @param objectClass
      *            The object class to find and return.
@@ -109,16 +1522,128 @@ public class EBeanDataStore extends DataStore {
     @Override
     public <T> T fetchByID(Class<T> objectClass, Object ID)
             throws DataStoreNotFoundException {
-        T returnVal = this.ebeanServer.find(objectClass, ID);
+        EntityCache cache = currentEntityCache();
+        T returnVal = (cache == null) ? null : cache.get(objectClass, ID);
         if (returnVal == null) {
-            throw new DataStoreNotFoundException(ID + " not found for "
-                    + objectClass.getCanonicalName());
+            long started = queryStarted();
+            Query<T> query = this.ebeanServer.find(objectClass).setId(ID);
+            returnVal = query.findUnique();
+            queryFinished(started, "fetchByID", objectClass, query,
+                    Collections.singletonList(ID), (returnVal == null) ? 0 : 1);
+            if (returnVal == null) {
+                throw new DataStoreNotFoundException(ID + " not found for "
+                        + objectClass.getCanonicalName());
+            }
+            if (cache != null) {
+                cache.put(objectClass, ID, returnVal);
+            }
         }
         return returnVal;
     }
 
     /**
-     * Fetches zero or more objects from the ebeanServer.
+     * Fetches many objects by their IDs. Objects in the entity cache are
+     * taken from there; the rest are fetched with IN queries of at most
+     * {@link #IDS_PER_QUERY} IDs each, and added to the cache.
+     * 
+     * @param objectClass
+     *            The object class to find and return.
+     * @param IDs
+     *            The IDs of the objects to find.
+     * @param missingIDs
+     *            A collection to which the IDs that were not found are added;
+     *            may be null.
+     * @return A Map of ID -&gt; object for every ID that was found, in the
+     *         order of the IDs. IDs may be given as Strings, and are keyed
+     *         as they were given.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByIDs(java.lang.Class,
+     *      java.util.Collection, java.util.Collection)
+     */
+    @Override
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs,
+                                         Collection<Object> missingIDs)
+            throws DataStoreException {
+        EntityCache cache = currentEntityCache();
+        Map<Object, Object> idsByRequest = new HashMap<Object, Object>();
+        Set<Object> uniqueIDs = new LinkedHashSet<Object>();
+        for (Object requested : IDs) {
+            if (!idsByRequest.containsKey(requested)) {
+                Object ID = requestedID(objectClass, requested);
+                idsByRequest.put(requested, ID);
+                if (ID != null) {
+                    uniqueIDs.add(ID);
+                }
+            }
+        }
+        Map<Object, T> fetched = new HashMap<Object, T>();
+        List<Object> uncached = new ArrayList<Object>();
+        for (Object ID : uniqueIDs) {
+            T cached = (cache == null) ? null : cache.get(objectClass, ID);
+            if (cached == null) {
+                uncached.add(ID);
+            } else {
+                fetched.put(ID, cached);
+            }
+        }
+        try {
+            for (int start = 0; start < uncached.size(); start += IDS_PER_QUERY) {
+                List<Object> chunk =
+                        uncached.subList(start, Math.min(uncached.size(),
+                                start + IDS_PER_QUERY));
+                long started = queryStarted();
+                Query<T> query =
+                        this.ebeanServer.find(objectClass).where().idIn(chunk)
+                                .query();
+                List<T> results = query.findList();
+                queryFinished(started, "fetchByIDs", objectClass, query, chunk,
+                        results.size());
+                for (T dataObject : results) {
+                    Object ID = DataObjectUtilities.getId(dataObject);
+                    fetched.put(ID, dataObject);
+                    if (cache != null) {
+                        cache.put(objectClass, ID, dataObject);
+                    }
+                }
+            }
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+        Map<Object, T> found = new LinkedHashMap<Object, T>();
+        for (Object requested : IDs) {
+            Object ID = idsByRequest.get(requested);
+            T dataObject = (ID == null) ? null : fetched.get(ID);
+            if (dataObject != null) {
+                found.put(requested, dataObject);
+            } else if (missingIDs != null && !missingIDs.contains(requested)) {
+                missingIDs.add(requested);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Converts an ID given by a caller, such as an importer, that may be the
+     * String form of the data class's ID to the ID itself.
+     * 
+     * @return The ID, or null if the String is not a valid ID.
+     */
+    static Object requestedID(Class<?> dataClass, Object requested) {
+        if (!(requested instanceof String)) {
+            return requested;
+        }
+        try {
+            return idFromString(dataClass, (String) requested);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Fetches zero or more objects from the query cache, or from the
+     * ebeanServer if the query is not cached.
      * 
      * @param objectClass
      *            The object class to find and return.
@@ -135,13 +1660,14 @@ public class EBeanDataStore extends DataStore {
     @Override
     public <T> List<T> fetchByField(Class<T> objectClass, String field,
                                     Object value) throws DataStoreException {
-        return this.ebeanServer.find(objectClass).where().eq(field, value)
-                .findList();
+        return fetchByFields(objectClass,
+                Collections.singletonMap(field, value));
     }
 
     /**
-     * Fetches zero or more objects from the data store who have fields that
-     * match all of the field value mappings in fieldData.
+     * Fetches zero or more objects from the query cache, or from the data
+     * store if the query is not cached, who have fields that match all of the
+     * field value mappings in fieldData.
      * 
      * @param objectClass
      *            The object class to fetch and return.
@@ -158,17 +1684,443 @@ public class EBeanDataStore extends DataStore {
     public <T> List<T> fetchByFields(Class<T> objectClass,
                                      Map<String, Object> fieldData)
             throws DataStoreException {
+        QueryCache cache = currentQueryCache();
+        List<T> results =
+                (cache == null) ? null : cache.get(objectClass, fieldData);
+        if (results != null) {
+            return results;
+        }
         ExpressionList<T> query = this.ebeanServer.find(objectClass).where();
         for (Entry<String, Object> e : fieldData.entrySet()) {
             Object value = e.getValue();
             query = query.eq(e.getKey(), value);
         }
-        List<T> results = query.findList();
-        // System.err.println("Query for " + fieldData + " -> " +
-        // query.query().getGeneratedSql());
+        try {
+            long started = queryStarted();
+            results = query.findList();
+            queryFinished(started, "fetchByFields", objectClass, query.query(),
+                    fieldData.values(), results.size());
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+        if (cache != null) {
+            cache.put(objectClass, fieldData, results);
+        }
         return results;
     }
 
+    /**
+     * Joins property names into the comma-separated list taken by Ebean's
+     * select() and fetch().
+     */
+    static String propertyList(Collection<String> properties) {
+        StringBuilder list = new StringBuilder();
+        for (String property : properties) {
+            if (list.length() > 0) {
+                list.append(", ");
+            }
+            list.append(property);
+        }
+        return list.toString();
+    }
+
+    /**
+     * Builds the Ebean query for a fetch with FetchOptions: the field
+     * matches, the keyset condition for an afterID, the ordering (with the ID
+     * as the final tie-breaker), the slice, the selected fields, and a join
+     * for each fetch path. Derby orders nulls after every other value, as
+     * {@link DataObjectUtilities#compareValues(Object, Object)} does, and the
+     * keyset condition follows that order for a null anchor value too.
+     * 
+     * @param objectClass
+     *            The object class to query.
+     * @param fieldData
+     *            A mapping of field name -> field value, or null.
+     * @param options
+     *            The options to apply.
+     * @return The query.
+     * @throws DataStoreException
+     *             if the afterID object could not be fetched.
+     */
+    <T> Query<T> buildQuery(Class<T> objectClass,
+                            Map<String, Object> fieldData, FetchOptions options)
+            throws DataStoreException {
+        Query<T> query = this.ebeanServer.find(objectClass);
+        ExpressionList<T> where = query.where();
+        if (fieldData != null) {
+            for (Entry<String, Object> e : fieldData.entrySet()) {
+                where.eq(e.getKey(), e.getValue());
+            }
+        }
+        List<FetchOptions.Ordering> keys =
+                options.keyOrderings(DataObjectUtilities.idField(objectClass)
+                        .getName());
+        if (options.getAfterID() != null) {
+            T anchor = fetchByID(objectClass, options.getAfterID());
+            ExpressionFactory factory = this.ebeanServer.getExpressionFactory();
+            Expression keyset = null;
+            for (int i = keys.size() - 1; i >= 0; i -= 1) {
+                FetchOptions.Ordering key = keys.get(i);
+                Object value =
+                        DataObjectUtilities.getProperty(anchor, key.field);
+                // Comparisons with null match nothing, so the nulls, which
+                // sort last, are matched separately. Nothing sorts after a
+                // null in an ascending order.
+                Expression after;
+                Expression same;
+                if (value == null) {
+                    after = key.descending ? factory.isNotNull(key.field)
+                            : null;
+                    same = factory.isNull(key.field);
+                } else if (key.descending) {
+                    after = factory.lt(key.field, value);
+                    same = factory.eq(key.field, value);
+                } else {
+                    after =
+                            factory.or(factory.gt(key.field, value),
+                                    factory.isNull(key.field));
+                    same = factory.eq(key.field, value);
+                }
+                if (keyset == null) {
+                    keyset = after;
+                } else if (after == null) {
+                    keyset = factory.and(same, keyset);
+                } else {
+                    keyset = factory.or(after, factory.and(same, keyset));
+                }
+            }
+            where.add(keyset);
+        }
+        for (FetchOptions.Ordering key : keys) {
+            if (key.descending) {
+                query.orderBy().desc(key.field);
+            } else {
+                query.orderBy().asc(key.field);
+            }
+        }
+        query.setFirstRow(options.getFirstRow());
+        if (options.getMaxRows() > 0) {
+            query.setMaxRows(options.getMaxRows());
+        }
+        if (!options.getSelectedFields().isEmpty()) {
+            query.select(propertyList(options.getSelectedFields()));
+        }
+        for (String path : options.getFetchPaths()) {
+            Set<String> fields = options.getFetchedFields(path);
+            if (fields.isEmpty()) {
+                query.fetch(path);
+            } else {
+                query.fetch(path, propertyList(fields));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Fetches an ordered page of objects from the ebeanServer. The ordering,
+     * offset and limit are all applied by the database. Keyset pagination is
+     * translated into a WHERE clause comparing the ordering fields against
+     * those of the afterID object, so the ordering fields should not be null.
+     * Objects on the options' fetch paths are loaded by joins in the same
+     * query.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            match every object of the class.
+     * @param options
+     *            The ordering, offset, limit, keyset and fetch paths to apply.
+     * @return The requested page of objects.
+     * @throws DataStoreNotFoundException
+     *             if the options name an afterID that does not exist.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByFields(java.lang.Class,
+     *      java.util.Map, com.github.jearls.SPRaceTracker.data.FetchOptions)
+     */
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData,
+                                     FetchOptions options)
+            throws DataStoreException {
+        Query<T> query = buildQuery(objectClass, fieldData, options);
+        try {
+            long started = queryStarted();
+            List<T> results = query.findList();
+            queryFinished(started, "fetchByFields", objectClass, query,
+                    (fieldData == null) ? null : fieldData.values(),
+                    results.size());
+            return results;
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Builds an Ebean query matching all the field values.
+     */
+    <T> Query<T> matchingQuery(Class<T> objectClass,
+                               Map<String, Object> fieldData) {
+        Query<T> query = this.ebeanServer.find(objectClass);
+        if (fieldData != null) {
+            ExpressionList<T> where = query.where();
+            for (Entry<String, Object> e : fieldData.entrySet()) {
+                where.eq(e.getKey(), e.getValue());
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Counts the matching objects with a SELECT COUNT(*) in the database,
+     * unless the query's results are already in the query cache.
+     * 
+     * @param objectClass
+     *            The object class to count.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            count every object of the class.
+     * @return The number of matching objects.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#count(java.lang.Class,
+     *      java.util.Map)
+     */
+    @Override
+    public int count(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        QueryCache cache = currentQueryCache();
+        if (fieldData != null && cache != null) {
+            List<?> cached = cache.get(objectClass, fieldData);
+            if (cached != null) {
+                return cached.size();
+            }
+        }
+        try {
+            long started = queryStarted();
+            Query<?> query = matchingQuery(objectClass, fieldData);
+            int count = query.findRowCount();
+            queryFinished(started, "count", objectClass, query,
+                    (fieldData == null) ? null : fieldData.values(), 1);
+            return count;
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Checks for a matching object by fetching the ID of at most one match,
+     * unless the query's results are already in the query cache.
+     * 
+     * @param objectClass
+     *            The object class to look for.
+     * @param fieldData
+     *            A mapping of field name -> field value; null or empty to
+     *            check for any object of the class.
+     * @return true if at least one object matches.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#exists(java.lang.Class,
+     *      java.util.Map)
+     */
+    @Override
+    public boolean exists(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        QueryCache cache = currentQueryCache();
+        if (fieldData != null && cache != null) {
+            List<?> cached = cache.get(objectClass, fieldData);
+            if (cached != null) {
+                return !cached.isEmpty();
+            }
+        }
+        try {
+            long started = queryStarted();
+            Query<?> query = matchingQuery(objectClass, fieldData).setMaxRows(1);
+            List<?> ids = query.findIds();
+            queryFinished(started, "exists", objectClass, query,
+                    (fieldData == null) ? null : fieldData.values(), ids.size());
+            return !ids.isEmpty();
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Builds the SQL that totals a season's points per Driver or per Team. The
+     * table and column names are taken from the Ebean mapping, and the points
+     * table is written into the statement as a CASE over the place, so the
+     * whole season is totalled by a single GROUP BY.
+     */
+    String standingsSql(int[] pointsByPlace, boolean byTeam) {
+        SpiEbeanServer server = (SpiEbeanServer) this.ebeanServer;
+        BeanDescriptor<?> finish = server.getBeanDescriptor(Finish.class);
+        BeanDescriptor<?> race = server.getBeanDescriptor(Race.class);
+        BeanDescriptor<?> driver = server.getBeanDescriptor(Driver.class);
+        StringBuilder placePoints = new StringBuilder();
+        if (pointsByPlace.length == 0) {
+            placePoints.append("0");
+        } else {
+            String placeColumn = "f." + columnName(finish, "place");
+            placePoints.append("case");
+            for (int place = 1; place <= pointsByPlace.length; place += 1) {
+                placePoints.append(" when ").append(placeColumn).append(" = ")
+                        .append(place).append(" then ")
+                        .append(pointsByPlace[place - 1]);
+            }
+            placePoints.append(" else 0 end");
+        }
+        String standingId;
+        String driverJoin = "";
+        if (byTeam) {
+            standingId = "d." + columnName(driver, "team");
+            driverJoin =
+                    " join " + driver.getBaseTable() + " d on f."
+                            + columnName(finish, "driver") + " = d."
+                            + driver.getIdProperty().getDbColumn();
+        } else {
+            standingId = "f." + columnName(finish, "driver");
+        }
+        return "select " + standingId + " as standing_id,"
+                + " sum(cast(" + placePoints + " as bigint) * r."
+                + columnName(race, "valueMultiplier") + ") as points,"
+                + " count(*) as finishes" + " from " + finish.getBaseTable()
+                + " f join " + race.getBaseTable() + " r on f."
+                + columnName(finish, "forRace") + " = r."
+                + race.getIdProperty().getDbColumn() + driverJoin
+                + " where r." + columnName(race, "season") + " = :season"
+                + " and " + standingId + " is not null" + " group by "
+                + standingId + " order by points desc";
+    }
+
+    /**
+     * Totals a season's points per Driver or per Team in a single query.
+     */
+    @Override
+    List<Standing> standings(Season season, int[] pointsByPlace, boolean byTeam)
+            throws DataStoreException {
+        try {
+            long started = queryStarted();
+            String sql = standingsSql(pointsByPlace, byTeam);
+            SqlQuery query = this.ebeanServer.createSqlQuery(sql);
+            query.setParameter("season", season.getId());
+            List<SqlRow> rows = query.findList();
+            queryFinished(started, byTeam ? "teamStandings"
+                    : "driverStandings", Season.class, sql, Collections
+                    .singletonList(season), rows.size());
+            List<Standing> standings = new ArrayList<Standing>();
+            for (SqlRow row : rows) {
+                standings.add(new Standing(row.getUUID("standing_id"), row
+                        .getLong("points"), row.getInteger("finishes")));
+            }
+            return standings;
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Converts an ID read back from the change log to the type of the data
+     * class's ID field.
+     */
+    static Object idFromString(Class<?> dataClass, String id) {
+        Class<?> idType = DataObjectUtilities.idField(dataClass).getType();
+        if (idType == UUID.class) {
+            return UUID.fromString(id);
+        } else if (idType == Long.class || idType == long.class) {
+            return Long.valueOf(id);
+        } else if (idType == Integer.class || idType == int.class) {
+            return Integer.valueOf(id);
+        }
+        return id;
+    }
+
+    /**
+     * <p>
+     * Reads the change log. Every insert, update and delete is logged in the
+     * transaction that makes it, so changes rolled back are never seen.
+     * </p>
+     * <p>
+     * Versions are handed out as the writes are made, not as they are
+     * committed, so a transaction may still commit a version lower than one
+     * already committed by another. The log is therefore only read up to the
+     * version before the lowest one held by a transaction still in progress;
+     * later changes are returned once it ends.
+     * </p>
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#changesSince(long)
+     */
+    @Override
+    public List<DataChange> changesSince(long version)
+            throws DataStoreException {
+        try {
+            long settled = settledVersion();
+            List<DataChange> changes = new ArrayList<DataChange>();
+            if (settled <= version) {
+                return changes;
+            }
+            long started = queryStarted();
+            String sql =
+                    "select version, data_class, object_id, operation from "
+                            + CHANGE_TABLE + " where version > :version"
+                            + " and version <= :settled order by version";
+            SqlQuery query = this.ebeanServer.createSqlQuery(sql);
+            query.setParameter("version", version);
+            query.setParameter("settled", settled);
+            List<SqlRow> rows = query.findList();
+            queryFinished(started, "changesSince", DataChange.class, sql,
+                    Arrays.asList(version, settled), rows.size());
+            for (SqlRow row : rows) {
+                Class<?> dataClass = Class.forName(row.getString("data_class"));
+                changes.add(new DataChange(row.getLong("version"), dataClass,
+                        idFromString(dataClass, row.getString("object_id")),
+                        Operation.valueOf(row.getString("operation"))));
+            }
+            return changes;
+        } catch (ClassNotFoundException e) {
+            throw new DataStoreException(e);
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Returns the highest committed version below the lowest one held by a
+     * transaction still in progress.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#currentVersion()
+     */
+    @Override
+    public long currentVersion() throws DataStoreException {
+        return settledVersion();
+    }
+
+    /**
+     * Removes old entries from the change log, once every consumer has read
+     * past them. Later versions are not renumbered, and the latest entry is
+     * always kept, so that versions carry on from it when the data store is
+     * next opened.
+     * 
+     * @param version
+     *            The latest version to remove.
+     * @return The number of entries removed.
+     * @throws DataStoreException
+     *             if an error occurred while removing them.
+     */
+    public int discardChangesThrough(long version) throws DataStoreException {
+        try {
+            return this.ebeanServer
+                    .createSqlUpdate(
+                            "delete from " + CHANGE_TABLE
+                                    + " where version <= :version"
+                                    + " and version < (select max(version)"
+                                    + " from " + CHANGE_TABLE + ")")
+                    .setParameter("version", version).execute();
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
     /**
      * Fetches all objects of a given class from the ebeanServer.
      * 
@@ -181,6 +2133,93 @@ public class EBeanDataStore extends DataStore {
      */
     @Override
     public <T> List<T> fetchAll(Class<T> objectClass) throws DataStoreException {
-        return this.ebeanServer.find(objectClass).findList();
+        long started = queryStarted();
+        Query<T> query = this.ebeanServer.find(objectClass);
+        List<T> results = query.findList();
+        queryFinished(started, "fetchAll", objectClass, query, null,
+                results.size());
+        return results;
+    }
+
+    /**
+     * Carries a DataStoreException thrown by a visitor out through Ebean's
+     * findEach, which does not allow checked exceptions.
+     */
+    static class VisitorException extends RuntimeException {
+        public static final long serialVersionUID = 1L;
+
+        VisitorException(DataStoreException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Streams all objects of a given class from the ebeanServer to the
+     * visitor. The objects are read through a database cursor, so only one
+     * object at a time is held in memory.
+     * 
+     * @param objectClass
+     *            The object class to fetch.
+     * @param visitor
+     *            The visitor to receive each fetched object.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server, or if the
+     *             visitor threw a DataStoreException.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#forEach(java.lang.Class,
+     *      com.github.jearls.SPRaceTracker.data.DataStoreVisitor)
+     */
+    @Override
+    public <T> void forEach(Class<T> objectClass,
+                            final DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        each(this.ebeanServer.find(objectClass), visitor);
+    }
+
+    /**
+     * Streams the objects of a given class from the ebeanServer to the
+     * visitor, in the order and slice given by the FetchOptions, with the
+     * objects on each fetch path loaded by joins in the same query.
+     * 
+     * @param objectClass
+     *            The object class to fetch.
+     * @param options
+     *            The ordering, slicing and fetch paths to apply.
+     * @param visitor
+     *            The visitor to receive each fetched object.
+     * @throws DataStoreException
+     *             if an error occurred while querying the server, or if the
+     *             visitor threw a DataStoreException.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#forEach(java.lang.Class,
+     *      com.github.jearls.SPRaceTracker.data.FetchOptions,
+     *      com.github.jearls.SPRaceTracker.data.DataStoreVisitor)
+     */
+    @Override
+    public <T> void forEach(Class<T> objectClass, FetchOptions options,
+                            final DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        each(buildQuery(objectClass, null, options), visitor);
+    }
+
+    /**
+     * Runs a query through a database cursor, handing each object to the
+     * visitor.
+     */
+    <T> void each(Query<T> query, final DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        try {
+            query.findEach(new QueryEachConsumer<T>() {
+                public void accept(T dataObject) {
+                    try {
+                        visitor.visit(dataObject);
+                    } catch (DataStoreException e) {
+                        throw new VisitorException(e);
+                    }
+                }
+            });
+        } catch (VisitorException e) {
+            throw (DataStoreException) e.getCause();
+        } catch (PersistenceException e) {
+            throw new DataStoreException(e);
+        }
     }
 }
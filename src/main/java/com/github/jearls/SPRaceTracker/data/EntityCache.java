@@ -0,0 +1,233 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An EntityCache is a size-bounded identity map of data objects keyed by
+ * (class, ID). When it is full, the least recently used object is evicted. It
+ * keeps hit, miss and eviction counters so that its size can be tuned.
+ * 
+ * All methods are synchronized, so a single cache may be shared between
+ * threads.
+ * 
+ * @author jearls
+ */
+public class EntityCache {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * The default maximum number of objects held by a cache.
+     */
+    public static final int  DEFAULT_MAX_SIZE = 1000;
+
+    /**
+     * The key of a cache entry: the data class and the object's ID.
+     */
+    static class Key {
+        final Class<?> objectClass;
+        final Object   id;
+
+        Key(Class<?> objectClass, Object id) {
+            this.objectClass = DataObjectUtilities.entityClass(objectClass);
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return objectClass.hashCode() * 31
+                    + ((id == null) ? 0 : id.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other instanceof Key) {
+                Key otherKey = (Key) other;
+                return objectClass == otherKey.objectClass
+                        && ((id == null) ? otherKey.id == null : id
+                                .equals(otherKey.id));
+            } else
+                return false;
+        }
+
+        @Override
+        public String toString() {
+            return objectClass.getSimpleName() + "#" + id;
+        }
+    }
+
+    /**
+     * The entry map, kept in access order so that the eldest entry is always
+     * the least recently used one.
+     */
+    class LRUMap extends LinkedHashMap<Key, Object> {
+        public static final long serialVersionUID = 1L;
+
+        LRUMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            if (size() > maxSize) {
+                evictions += 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    final LRUMap entries   = new LRUMap();
+    int          maxSize;
+    long         hits      = 0;
+    long         misses    = 0;
+    long         evictions = 0;
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_SIZE} objects.
+     */
+    public EntityCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most maxSize objects.
+     * 
+     * @param maxSize
+     *            The maximum number of objects to hold; 0 disables the cache.
+     */
+    public EntityCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Looks up an object, counting a hit or a miss.
+     * 
+     * @param objectClass
+     *            The class of the object.
+     * @param id
+     *            The object's ID.
+     * @return The cached object, or null if it is not cached.
+     */
+    public synchronized <T> T get(Class<T> objectClass, Object id) {
+        if (maxSize == 0 || id == null) {
+            return null;
+        }
+        Object cached = entries.get(new Key(objectClass, id));
+        if (cached == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return objectClass.cast(cached);
+    }
+
+    /**
+     * Adds an object to the cache, evicting the least recently used object if
+     * the cache is full.
+     * 
+     * @param objectClass
+     *            The class of the object.
+     * @param id
+     *            The object's ID.
+     * @param dataObject
+     *            The object.
+     */
+    public synchronized void put(Class<?> objectClass, Object id,
+                                 Object dataObject) {
+        if (maxSize > 0 && id != null && dataObject != null) {
+            entries.put(new Key(objectClass, id), dataObject);
+        }
+    }
+
+    /**
+     * Removes a single object from the cache.
+     * 
+     * @param objectClass
+     *            The class of the object.
+     * @param id
+     *            The object's ID.
+     */
+    public synchronized void invalidate(Class<?> objectClass, Object id) {
+        if (id != null) {
+            entries.remove(new Key(objectClass, id));
+        }
+    }
+
+    /**
+     * Removes every object from the cache. The counters are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the number of objects currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the maximum number of objects the cache will hold.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of objects the cache will hold; 0
+     *            disables the cache. Shrinking the cache evicts the least
+     *            recently used objects.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(
+                    "cache size must not be negative");
+        }
+        this.maxSize = maxSize;
+        while (entries.size() > maxSize) {
+            Key eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+            evictions += 1;
+        }
+    }
+
+    /**
+     * @return the number of lookups that found their object.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find their object.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of objects evicted to make room for others.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EntityCache(size=" + entries.size() + "/" + maxSize
+                + ",hits=" + hits + ",misses=" + misses + ",evictions="
+                + evictions + ")";
+    }
+}
@@ -0,0 +1,322 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FetchOptions describe how the results of a data store query should be
+ * ordered and which slice of those results should be returned. Results can be
+ * sliced either by offset ({@link #setFirstRow(int)}) or by key
+ * ({@link #setAfterID(Object)}), and limited to a maximum number of rows.
+ * They can also name related objects that should be loaded along with the
+ * results ({@link #fetch(String)}), rather than one at a time as they are
+ * used, and limit the fields that are loaded ({@link #select(String...)}).
+ * 
+ * @author jearls
+ */
+public class FetchOptions {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * A single ordering term: the field to order by and the direction.
+     * 
+     * @author jearls
+     */
+    public static class Ordering {
+        public final String  field;
+        public final boolean descending;
+
+        public Ordering(String field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+
+        @Override
+        public String toString() {
+            return field + (descending ? " desc" : " asc");
+        }
+    }
+
+    List<Ordering>           orderings  = new LinkedList<Ordering>();
+    int                      firstRow   = 0;
+    int                      maxRows    = 0;
+    Object                   afterID    = null;
+    Set<String>              selected   = new LinkedHashSet<String>();
+    Map<String, Set<String>> fetchPaths =
+                                                new LinkedHashMap<String, Set<String>>();
+
+    /**
+     * Adds an ascending ordering term. Terms are applied in the order they are
+     * added; the object ID is always used as the final tie-breaker.
+     * 
+     * @param field
+     *            The field name to order by.
+     * @return this FetchOptions.
+     */
+    public FetchOptions orderBy(String field) {
+        orderings.add(new Ordering(field, false));
+        return this;
+    }
+
+    /**
+     * Adds a descending ordering term.
+     * 
+     * @param field
+     *            The field name to order by.
+     * @return this FetchOptions.
+     */
+    public FetchOptions orderByDescending(String field) {
+        orderings.add(new Ordering(field, true));
+        return this;
+    }
+
+    /**
+     * @return the ordering terms, in the order they are applied.
+     */
+    public List<Ordering> getOrderings() {
+        return Collections.unmodifiableList(orderings);
+    }
+
+    /**
+     * @return the index of the first row to return
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @param firstRow
+     *            the index of the first row to return, counting from 0.
+     * @return this FetchOptions.
+     */
+    public FetchOptions setFirstRow(int firstRow) {
+        if (firstRow < 0) {
+            throw new IllegalArgumentException("first row must not be negative");
+        }
+        this.firstRow = firstRow;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of rows to return, or 0 for no limit.
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @param maxRows
+     *            the maximum number of rows to return, or 0 for no limit.
+     * @return this FetchOptions.
+     */
+    public FetchOptions setMaxRows(int maxRows) {
+        if (maxRows < 0) {
+            throw new IllegalArgumentException("max rows must not be negative");
+        }
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * @return the ID of the object after which results start, or null.
+     */
+    public Object getAfterID() {
+        return afterID;
+    }
+
+    /**
+     * Requests keyset pagination: only the objects that sort after the object
+     * with this ID are returned. Pass the ID of the last object of the
+     * previous page to fetch the next page.
+     * 
+     * @param afterID
+     *            the ID of the object after which results start, or null to
+     *            start from the beginning.
+     * @return this FetchOptions.
+     */
+    public FetchOptions setAfterID(Object afterID) {
+        this.afterID = afterID;
+        return this;
+    }
+
+    /**
+     * Adds a fetch path: a to-one relation, or a dotted chain of them such as
+     * "forRace.season", whose objects should be loaded together with the
+     * results. Data stores backed by a database load them in the same query
+     * with a join, instead of issuing one query per result when the relation
+     * is first used. Data stores that hold their objects in memory ignore
+     * fetch paths.
+     * 
+     * @param path
+     *            The relation path to fetch.
+     * @return this FetchOptions.
+     */
+    public FetchOptions fetch(String path) {
+        return fetch(path, new String[0]);
+    }
+
+    /**
+     * Adds a fetch path whose objects are loaded with only some of their
+     * fields, as {@link #select(String...)} does for the results themselves.
+     * 
+     * @param path
+     *            The relation path to fetch.
+     * @param fields
+     *            The fields to load in the related objects; none to load
+     *            every field.
+     * @return this FetchOptions.
+     */
+    public FetchOptions fetch(String path, String... fields) {
+        fetchPaths.put(path,
+                new LinkedHashSet<String>(Arrays.asList(fields)));
+        return this;
+    }
+
+    /**
+     * @param path
+     *            A fetch path.
+     * @return the fields to load in the objects on the path; empty if every
+     *         field is loaded, or if the path is not fetched.
+     */
+    public Set<String> getFetchedFields(String path) {
+        Set<String> fields = fetchPaths.get(path);
+        if (fields == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * <p>
+     * Loads only the listed fields of the results (plus their IDs), rather
+     * than whole objects. Fields naming a to-one relation load the
+     * related object's ID only. This keeps queries for views that show two
+     * or three columns from reading, and holding, everything else.
+     * </p>
+     * <p>
+     * The results are still ordinary data objects. Data stores backed by a
+     * database return them as partial objects that load any other field from
+     * the database the first time it is used, so an unselected field is never
+     * silently wrong, just slower; saving a partial object only writes the
+     * fields that were loaded or changed. Data stores that hold their
+     * objects in memory ignore the selection and return whole objects.
+     * </p>
+     * 
+     * @param fields
+     *            The fields to load. Calling select again adds to the
+     *            selection.
+     * @return this FetchOptions.
+     */
+    public FetchOptions select(String... fields) {
+        selected.addAll(Arrays.asList(fields));
+        return this;
+    }
+
+    /**
+     * @return the fields selected by {@link #select(String...)}; empty if
+     *         whole objects are loaded.
+     */
+    public Set<String> getSelectedFields() {
+        return Collections.unmodifiableSet(selected);
+    }
+
+    /**
+     * @return the relation paths to fetch with the results.
+     */
+    public Set<String> getFetchPaths() {
+        return Collections.unmodifiableSet(fetchPaths.keySet());
+    }
+
+    /**
+     * Returns the ordering terms with the ID property appended as the final
+     * tie-breaker, so that the order is total and keyset pagination is
+     * well-defined.
+     * 
+     * @param idProperty
+     *            The name of the ID property of the class being fetched.
+     * @return The complete list of ordering terms.
+     */
+    List<Ordering> keyOrderings(String idProperty) {
+        List<Ordering> keys = new ArrayList<Ordering>(orderings);
+        keys.add(new Ordering(idProperty, false));
+        return keys;
+    }
+
+    /**
+     * Builds a comparator that sorts data objects by these options' ordering
+     * terms, for data stores that sort their objects in memory.
+     * 
+     * @param idProperty
+     *            The name of the ID property of the class being fetched.
+     * @return The comparator.
+     */
+    Comparator<Object> comparator(String idProperty) {
+        final List<Ordering> keys = keyOrderings(idProperty);
+        return new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                for (Ordering key : keys) {
+                    int c =
+                            DataObjectUtilities.compareValues(
+                                    DataObjectUtilities.getProperty(a,
+                                            key.field),
+                                    DataObjectUtilities.getProperty(b,
+                                            key.field));
+                    if (c != 0) {
+                        return key.descending ? -c : c;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Applies these options to a list of objects in memory: sorts the list,
+     * drops everything up to and including the {@link #getAfterID() afterID}
+     * anchor, then returns the requested slice.
+     * 
+     * @param objects
+     *            The objects to order and slice; this list is sorted in place.
+     * @param idProperty
+     *            The name of the ID property of the objects.
+     * @param anchor
+     *            The object whose ID is {@link #getAfterID()}, or null if
+     *            keyset pagination was not requested.
+     * @return The requested slice of the sorted list.
+     */
+    <T> List<T> apply(List<T> objects, String idProperty, T anchor) {
+        Comparator<Object> order = comparator(idProperty);
+        Collections.sort(objects, order);
+        int start = 0;
+        if (anchor != null) {
+            while (start < objects.size()
+                    && order.compare(objects.get(start), anchor) <= 0) {
+                start += 1;
+            }
+        }
+        start += firstRow;
+        int end = objects.size();
+        if (maxRows > 0 && start + maxRows < end) {
+            end = start + maxRows;
+        }
+        if (start >= end) {
+            return new ArrayList<T>();
+        }
+        return new ArrayList<T>(objects.subList(start, end));
+    }
+
+    @Override
+    public String toString() {
+        return "FetchOptions(orderings=" + orderings + ",firstRow=" + firstRow
+                + ",maxRows=" + maxRows + ",afterID=" + afterID
+                + ",selected=" + selected + ",fetchPaths=" + fetchPaths + ")";
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -17,11 +18,11 @@ import com.github.jearls.SPRaceTracker.data.FinishObserver.FinishElement;
  */
 @Entity
 @IdentifiedBy({ "forRace", "place" })
-public class Finish {
+public class Finish implements DirtyTracked {
 
     // When adding new fields or changing fields, make sure to update
     // serialVersionUID.
-    public static final long serialVersionUID = 1L;
+    public static final long serialVersionUID = 3L;
 
     @Id
     public UUID              id;
@@ -35,13 +36,29 @@ public class Finish {
     public boolean           injured;
     public int               weeksMissed;
 
+    /**
+     * The data store's change version when this Finish was last written. Only
+     * the data store sets it, so it is not public and is left out of imports
+     * and exports.
+     */
+    long                     changeVersion;
+
     // The observer handling code
 
     /**
-     * The list of observers for this Finish.
+     * The list of observers for this Finish. It is created when the first
+     * observer is added, so that objects nobody observes do not carry one.
+     */
+    @Transient
+    Set<FinishObserver>      observers        = null;
+
+    /**
+     * The elements of this Finish that have changed since it was last saved.
+     * Like the observers, it is created by the first change, so that objects
+     * that are only read do not carry one.
      */
     @Transient
-    Set<FinishObserver>      observers        = new HashSet<FinishObserver>();
+    EnumSet<FinishElement>   dirtyElements    = null;
 
     /**
      * Adds a new observer.
@@ -50,6 +67,9 @@ public class Finish {
      *            The object to be notified when this Finish changes.
      */
     public void addObserver(FinishObserver observer) {
+        if (observers == null) {
+            observers = new HashSet<FinishObserver>();
+        }
         observers.add(observer);
     }
 
@@ -61,21 +81,59 @@ public class Finish {
      *            changes.
      */
     public void removeObserver(FinishObserver observer) {
-        observers.remove(observer);
+        if (observers != null) {
+            observers.remove(observer);
+        }
     }
 
     /**
-     * Notifies observers that this Finish has changed.
+     * Records that this Finish has changed, and notifies its observers.
      * 
      * @param whatChanged
      *            What element in the driver has changed.
      */
     public void notify(FinishElement whatChanged) {
+        if (dirtyElements == null) {
+            dirtyElements = EnumSet.of(whatChanged);
+        } else {
+            dirtyElements.add(whatChanged);
+        }
+        if (observers == null) {
+            return;
+        }
         for (FinishObserver observer : observers) {
             observer.finishChanged(this, whatChanged);
         }
     }
 
+    /**
+     * @return the elements of this Finish that have changed since it was last
+     *         saved; empty if it has not changed.
+     */
+    public Set<FinishElement> getDirtyElements() {
+        if (dirtyElements == null) {
+            return EnumSet.noneOf(FinishElement.class);
+        }
+        return EnumSet.copyOf(dirtyElements);
+    }
+
+    /**
+     * @return true if this Finish has changed since it was last saved.
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#isDirty()
+     */
+    public boolean isDirty() {
+        return dirtyElements != null && !dirtyElements.isEmpty();
+    }
+
+    /**
+     * Forgets the changes made to this Finish, once they have been saved.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#clearDirty()
+     */
+    public void clearDirty() {
+        dirtyElements = null;
+    }
+
     /**
      * @return the forRace
      */
@@ -201,6 +259,13 @@ public class Finish {
         this.id = id;
     }
 
+    /**
+     * @return the changeVersion
+     */
+    public long getChangeVersion() {
+        return changeVersion;
+    }
+
     /**
      * Returns true if "other" is a Finish and both RaceResultss have the same
      * ID.
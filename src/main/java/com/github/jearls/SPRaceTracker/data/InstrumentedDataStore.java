@@ -0,0 +1,555 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * An InstrumentedDataStore wraps another DataStore and records, for every
+ * operation and data class, the number of calls, the number of calls that
+ * failed, the number of objects returned or written, and a histogram of the
+ * call latencies. The statistics can be read with
+ * {@link #getOperationStatistics()}, or over JMX once the store has been
+ * {@link #register(String) registered}.
+ * </p>
+ * <p>
+ * Every call is passed straight through to the wrapped DataStore, including
+ * transactions, so the wrapped store behaves exactly as it would on its own.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class InstrumentedDataStore extends DataStore implements
+        DataStoreStatisticsMXBean {
+    public static final long   serialVersionUID = 1L;
+
+    /**
+     * The JMX domain the statistics are registered under.
+     */
+    public static final String JMX_DOMAIN       = "SPRaceTracker";
+
+    /**
+     * The statistics gathered for one operation on one data class.
+     */
+    static class Counters {
+        final String           operation;
+        final String           dataClass;
+        final AtomicLong       calls     = new AtomicLong();
+        final AtomicLong       errors    = new AtomicLong();
+        final AtomicLong       rows      = new AtomicLong();
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        Counters(String operation, String dataClass) {
+            this.operation = operation;
+            this.dataClass = dataClass;
+        }
+
+        OperationStatistics snapshot() {
+            return new OperationStatistics(operation, dataClass, calls.get(),
+                    errors.get(), rows.get(), micros(latencies.getMean()),
+                    micros(latencies.getPercentile(50)),
+                    micros(latencies.getPercentile(99)),
+                    micros(latencies.getMax()));
+        }
+
+        static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+
+    /**
+     * A single call being timed. A call that ends without being marked as
+     * having succeeded is counted as an error.
+     */
+    class Call {
+        final Counters counters;
+        final long     start     = System.nanoTime();
+        boolean        succeeded = false;
+
+        Call(Counters counters) {
+            this.counters = counters;
+        }
+
+        void succeeded(long rows) {
+            counters.rows.addAndGet(rows);
+            succeeded = true;
+        }
+
+        <T> T returned(T result) {
+            succeeded(1);
+            return result;
+        }
+
+        <C extends Collection<?>> C returnedAll(C results) {
+            succeeded(results.size());
+            return results;
+        }
+
+        <M extends Map<?, ?>> M returnedAll(M results) {
+            succeeded(results.size());
+            return results;
+        }
+
+        int wrote(int rows) {
+            succeeded(rows);
+            return rows;
+        }
+
+        void end() {
+            counters.latencies.record(System.nanoTime() - start);
+            counters.calls.incrementAndGet();
+            if (!succeeded) {
+                counters.errors.incrementAndGet();
+            }
+        }
+    }
+
+    final DataStore                       dataStore;
+    final ConcurrentMap<String, Counters> counters;
+    ObjectName                            objectName;
+
+    /**
+     * Wraps a DataStore.
+     * 
+     * @param dataStore
+     *            The DataStore whose calls are to be measured.
+     */
+    public InstrumentedDataStore(DataStore dataStore) {
+        this.dataStore = dataStore;
+        this.counters = new ConcurrentHashMap<String, Counters>();
+    }
+
+    /**
+     * @return the wrapped DataStore
+     */
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server, under the name
+     * <code>SPRaceTracker:type=DataStore,name=</code><i>name</i>. They are
+     * unregistered when the store is closed.
+     * 
+     * @param name
+     *            The name to register the statistics under.
+     * @throws DataStoreException
+     *             if the statistics are already registered, or could not be.
+     */
+    public synchronized void register(String name) throws DataStoreException {
+        if (objectName != null) {
+            throw new DataStoreException("Statistics already registered as "
+                    + objectName);
+        }
+        try {
+            ObjectName newName =
+                    new ObjectName(JMX_DOMAIN + ":type=DataStore,name="
+                            + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    newName);
+            objectName = newName;
+        } catch (JMException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Removes the statistics from the platform MBean server, if they were
+     * registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                System.err.println("Unable to unregister " + objectName + ": "
+                        + e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * Starts timing a call.
+     */
+    Call begin(String operation, Class<?> dataClass) {
+        String className = (dataClass == null) ? "" : dataClass.getSimpleName();
+        String key = operation + ":" + className;
+        Counters c = counters.get(key);
+        if (c == null) {
+            Counters newCounters = new Counters(operation, className);
+            c = counters.putIfAbsent(key, newCounters);
+            if (c == null) {
+                c = newCounters;
+            }
+        }
+        return new Call(c);
+    }
+
+    /**
+     * Returns the data class shared by every object in a collection, or null
+     * if they are not all of the same class.
+     */
+    static Class<?> commonClass(Collection<?> objects) {
+        Class<?> common = null;
+        for (Object o : objects) {
+            if (common == null) {
+                common = o.getClass();
+            } else if (!common.equals(o.getClass())) {
+                return null;
+            }
+        }
+        return common;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStoreStatisticsMXBean#
+     * getOperationStatistics()
+     */
+    @Override
+    public List<OperationStatistics> getOperationStatistics() {
+        List<OperationStatistics> statistics =
+                new ArrayList<OperationStatistics>();
+        for (Counters c : counters.values()) {
+            statistics.add(c.snapshot());
+        }
+        Collections.sort(statistics, new Comparator<OperationStatistics>() {
+            public int compare(OperationStatistics a, OperationStatistics b) {
+                return Long.compare(b.getCalls() * b.getMeanMicros(),
+                        a.getCalls() * a.getMeanMicros());
+            }
+        });
+        return statistics;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.github.jearls.SPRaceTracker.data.DataStoreStatisticsMXBean#getTotalCalls
+     * ()
+     */
+    @Override
+    public long getTotalCalls() {
+        long total = 0;
+        for (Counters c : counters.values()) {
+            total += c.calls.get();
+        }
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.github.jearls.SPRaceTracker.data.DataStoreStatisticsMXBean#getTotalErrors
+     * ()
+     */
+    @Override
+    public long getTotalErrors() {
+        long total = 0;
+        for (Counters c : counters.values()) {
+            total += c.errors.get();
+        }
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStoreStatisticsMXBean#
+     * resetStatistics()
+     */
+    @Override
+    public void resetStatistics() {
+        counters.clear();
+    }
+
+    @Override
+    public void save(Object o) throws DataStoreException {
+        Call call = begin("save", o.getClass());
+        try {
+            dataStore.save(o);
+            call.succeeded(1);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void delete(Object o) throws DataStoreException {
+        Call call = begin("delete", o.getClass());
+        try {
+            dataStore.delete(o);
+            call.succeeded(1);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public int saveAll(Collection<?> objects) throws DataStoreException {
+        Call call = begin("saveAll", commonClass(objects));
+        try {
+            return call.wrote(dataStore.saveAll(objects));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public int deleteAll(Collection<?> objects) throws DataStoreException {
+        Call call = begin("deleteAll", commonClass(objects));
+        try {
+            return call.wrote(dataStore.deleteAll(objects));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Closes the wrapped DataStore and unregisters the statistics from JMX.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public void close() throws DataStoreException {
+        unregister();
+        dataStore.close();
+    }
+
+    @Override
+    public void beginTransaction() throws DataStoreException {
+        Call call = begin("beginTransaction", null);
+        try {
+            dataStore.beginTransaction();
+            call.succeeded(0);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void commitTransaction() throws DataStoreException {
+        Call call = begin("commitTransaction", null);
+        try {
+            dataStore.commitTransaction();
+            call.succeeded(0);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void rollbackTransaction() throws DataStoreException {
+        Call call = begin("rollbackTransaction", null);
+        try {
+            dataStore.rollbackTransaction();
+            call.succeeded(0);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> T fetchByID(Class<T> objectClass, Object ID)
+            throws DataStoreNotFoundException, DataStoreException {
+        Call call = begin("fetchByID", objectClass);
+        try {
+            return call.returned(dataStore.fetchByID(objectClass, ID));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs,
+                                         Collection<Object> missingIDs)
+            throws DataStoreException {
+        Call call = begin("fetchByIDs", objectClass);
+        try {
+            return call.returnedAll(dataStore.fetchByIDs(objectClass, IDs,
+                    missingIDs));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByField(Class<T> objectClass, String field,
+                                    Object value) throws DataStoreException {
+        Call call = begin("fetchByField", objectClass);
+        try {
+            return call.returnedAll(dataStore.fetchByField(objectClass, field,
+                    value));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData)
+            throws DataStoreException {
+        Call call = begin("fetchByFields", objectClass);
+        try {
+            return call.returnedAll(dataStore.fetchByFields(objectClass,
+                    fieldData));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData,
+                                     FetchOptions options)
+            throws DataStoreException {
+        Call call = begin("fetchByFields", objectClass);
+        try {
+            return call.returnedAll(dataStore.fetchByFields(objectClass,
+                    fieldData, options));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public int count(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        Call call = begin("count", objectClass);
+        try {
+            int count = dataStore.count(objectClass, fieldData);
+            call.succeeded(0);
+            return count;
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public boolean exists(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        Call call = begin("exists", objectClass);
+        try {
+            boolean exists = dataStore.exists(objectClass, fieldData);
+            call.succeeded(0);
+            return exists;
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<Standing> driverStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        Call call = begin("driverStandings", Season.class);
+        try {
+            return call.returnedAll(dataStore.driverStandings(season,
+                    pointsByPlace));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<Standing> teamStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        Call call = begin("teamStandings", Season.class);
+        try {
+            return call.returnedAll(dataStore.teamStandings(season,
+                    pointsByPlace));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public List<DataChange> changesSince(long version)
+            throws DataStoreException {
+        Call call = begin("changesSince", null);
+        try {
+            return call.returnedAll(dataStore.changesSince(version));
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public long currentVersion() throws DataStoreException {
+        Call call = begin("currentVersion", null);
+        try {
+            return call.returned(dataStore.currentVersion());
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> List<T> fetchAll(Class<T> objectClass) throws DataStoreException {
+        Call call = begin("fetchAll", objectClass);
+        try {
+            return call.returnedAll(dataStore.fetchAll(objectClass));
+        } finally {
+            call.end();
+        }
+    }
+
+    /**
+     * Wraps a visitor so that the objects it is handed are counted as rows.
+     */
+    static <T> DataStoreVisitor<T> counting(final DataStoreVisitor<T> visitor,
+                                            final long[] visited) {
+        return new DataStoreVisitor<T>() {
+            public void visit(T dataObject) throws DataStoreException {
+                visited[0] += 1;
+                visitor.visit(dataObject);
+            }
+        };
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        Call call = begin("forEach", objectClass);
+        long[] visited = new long[] { 0 };
+        try {
+            dataStore.forEach(objectClass, counting(visitor, visited));
+            call.succeeded(visited[0]);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass, FetchOptions options,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        Call call = begin("forEach", objectClass);
+        long[] visited = new long[] { 0 };
+        try {
+            dataStore.forEach(objectClass, options, counting(visitor, visited));
+            call.succeeded(visited[0]);
+        } finally {
+            call.end();
+        }
+    }
+}
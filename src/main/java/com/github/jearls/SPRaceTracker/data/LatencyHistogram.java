@@ -0,0 +1,139 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A LatencyHistogram counts latencies in logarithmic buckets, so that
+ * percentiles can be read back without keeping every sample. Each power of two
+ * is split into {@link #SUB_BUCKETS} equal buckets, which keeps every
+ * percentile within about 6% of the true value whatever the range of the
+ * latencies.
+ * </p>
+ * <p>
+ * Recording is lock-free and safe from any number of threads.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class LatencyHistogram {
+    public static final long serialVersionUID = 1L;
+
+    static final int         SUB_BUCKET_BITS  = 4;
+    static final int         SUB_BUCKETS      = 1 << SUB_BUCKET_BITS;
+    static final int         BUCKETS          = 64 * SUB_BUCKETS;
+
+    final AtomicLongArray    buckets          = new AtomicLongArray(BUCKETS);
+    final AtomicLong         count            = new AtomicLong();
+    final AtomicLong         total            = new AtomicLong();
+    final AtomicLong         max              = new AtomicLong();
+
+    /**
+     * Returns the bucket that holds a value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket =
+                (int) (value >>> (exponent - SUB_BUCKET_BITS))
+                        & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value held by a bucket.
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+    /**
+     * Records one latency.
+     * 
+     * @param nanos
+     *            The latency, in nanoseconds. Negative values are recorded as
+     *            zero.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest latency recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean latency, in nanoseconds, or 0 if none were recorded
+     */
+    public long getMean() {
+        long n = count.get();
+        return (n == 0) ? 0 : total.get() / n;
+    }
+
+    /**
+     * Returns a percentile of the recorded latencies.
+     * 
+     * @param percentile
+     *            The percentile, from 0 to 100.
+     * @return The latency, in nanoseconds, that the given percentage of
+     *         recorded latencies did not exceed, or 0 if none were recorded.
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int bucket = 0; bucket < buckets.length(); bucket += 1) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(bucketLimit(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Discards every recorded latency.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < buckets.length(); bucket += 1) {
+            buckets.set(bucket, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+}
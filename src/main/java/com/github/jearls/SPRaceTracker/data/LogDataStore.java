@@ -0,0 +1,854 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyInfo;
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyKind;
+import com.github.jearls.SPRaceTracker.data.DataObjectCodec.DataRecord;
+import com.github.jearls.SPRaceTracker.data.EntityCache.Key;
+
+/**
+ * <p>
+ * A DataStore that keeps every object in memory, like MemoryDataStore, and
+ * persists each save and delete as a compact record appended to a log file.
+ * Each record is framed with its length and a CRC32, and carries a sequence
+ * number.
+ * </p>
+ * <p>
+ * From time to time the whole state is written to a snapshot file and the log
+ * is cut back to the records written since. This compaction runs on a
+ * background thread whenever the log grows past
+ * {@link #getCompactionThreshold()} bytes, and can also be requested with
+ * {@link #compact()}.
+ * </p>
+ * <p>
+ * Opening the store loads the snapshot and replays the log records that
+ * follow it. A record torn by a crash fails its length or CRC check; it and
+ * anything after it are discarded, so recovery always ends at the last
+ * complete record.
+ * </p>
+ * <p>
+ * A failed append is cut back off the log and its records are kept, to be
+ * appended again by the next save or delete. If the log cannot be cut back,
+ * the store refuses any further saves and deletes, since records appended
+ * after a torn one would be discarded by recovery.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class LogDataStore extends MemoryDataStore {
+    public static final long       serialVersionUID             = 1L;
+
+    static final int               SNAPSHOT_MAGIC               = 0x53505254;
+    static final int               FORMAT_VERSION               = 1;
+    static final byte              OP_SAVE                      = 1;
+    static final byte              OP_DELETE                    = 2;
+
+    /**
+     * The default log size, in bytes, above which the log is compacted.
+     */
+    public static final long       DEFAULT_COMPACTION_THRESHOLD =
+            4L * 1024 * 1024;
+
+    /**
+     * The default interval, in seconds, between checks of the log size.
+     */
+    public static final long       DEFAULT_COMPACTION_INTERVAL  = 60;
+
+    final File                     logFile;
+    final File                     snapshotFile;
+    FileChannel                    logChannel;
+    long                           sequence                     = 0;
+    boolean                        syncWrites                   = true;
+    long                           compactionThreshold          =
+            DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * The framed records written by the current operation or transaction
+     * that have not been appended to the log yet.
+     */
+    final ByteArrayOutputStream    pending                      =
+            new ByteArrayOutputStream();
+
+    /**
+     * The objects whose records are pending, marked clean once the records
+     * have been appended to the log.
+     */
+    final List<DirtyTracked>       pendingObjects               =
+            new ArrayList<DirtyTracked>();
+
+    /**
+     * The error that left the log ending in a torn record, or null.
+     */
+    IOException                    logFailure                   = null;
+
+    /**
+     * Objects referred to by replayed records before their own record has
+     * been replayed.
+     */
+    final Map<Key, Object>         placeholders                 =
+            new HashMap<Key, Object>();
+
+    /**
+     * Serializes compactions with each other and with close().
+     */
+    final Object                   compactionLock               = new Object();
+
+    final ScheduledExecutorService compactor;
+
+    /**
+     * Opens a log-structured data store, creating it if it does not exist.
+     * 
+     * @param directory
+     *            The directory holding the store's snapshot and log files.
+     * @throws DataStoreException
+     *             if the store could not be opened or recovered.
+     */
+    public LogDataStore(File directory) throws DataStoreException {
+        super();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new DataStoreException("Unable to create " + directory);
+        }
+        logFile = new File(directory, "log.dat");
+        snapshotFile = new File(directory, "snapshot.dat");
+        try {
+            recover();
+            openLog();
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+        compactor =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "LogDataStore compactor");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if (getLogSize() > compactionThreshold) {
+                        compact();
+                    }
+                } catch (DataStoreException e) {
+                    System.err.println("Unable to compact " + logFile + ": "
+                            + e);
+                }
+            }
+        }, DEFAULT_COMPACTION_INTERVAL,
+                DEFAULT_COMPACTION_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens the log file for appending.
+     */
+    void openLog() throws IOException {
+        logChannel =
+                FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logChannel.position(logChannel.size());
+    }
+
+    // Recovery
+
+    /**
+     * Rebuilds the in-memory state from the snapshot and the log, and cuts
+     * the log back to its last complete record.
+     */
+    synchronized void recover() throws IOException {
+        classStores.clear();
+        placeholders.clear();
+        long snapshotSequence = 0;
+        if (snapshotFile.isFile()) {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+            if (snapshot.getInt() != SNAPSHOT_MAGIC
+                    || snapshot.getInt() != FORMAT_VERSION) {
+                throw new IOException(snapshotFile + " is not a snapshot");
+            }
+            snapshotSequence = snapshot.getLong();
+            int count = snapshot.getInt();
+            for (int i = 0; i < count; i += 1) {
+                ByteBuffer payload = readFrame(snapshot);
+                if (payload == null) {
+                    throw new IOException(snapshotFile + " is corrupt");
+                }
+                applyRecord(payload);
+            }
+        }
+        sequence = snapshotSequence;
+        if (logFile.isFile()) {
+            ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(logFile.toPath()));
+            int validEnd = 0;
+            ByteBuffer payload;
+            while ((payload = readFrame(log)) != null) {
+                long recordSequence = payload.getLong(0);
+                if (recordSequence > snapshotSequence) {
+                    applyRecord(payload);
+                    sequence = recordSequence;
+                }
+                validEnd = log.position();
+            }
+            if (validEnd < log.limit()) {
+                System.err.println("Discarding " + (log.limit() - validEnd)
+                        + " bytes of incomplete records from " + logFile);
+                FileChannel channel =
+                        FileChannel.open(logFile.toPath(),
+                                StandardOpenOption.WRITE);
+                try {
+                    channel.truncate(validEnd);
+                    channel.force(true);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+        placeholders.clear();
+    }
+
+    /**
+     * Reads one framed record from a buffer.
+     * 
+     * @return The record's payload, or null if the buffer holds no complete,
+     *         intact record at its position.
+     */
+    static ByteBuffer readFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length < 9 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+        CRC32 check = new CRC32();
+        check.update(payload);
+        if ((int) check.getValue() != crc) {
+            buffer.position(start);
+            return null;
+        }
+        return ByteBuffer.wrap(payload);
+    }
+
+    /**
+     * Applies one record payload to the in-memory state.
+     */
+    void applyRecord(ByteBuffer payload) throws IOException {
+        DataInput in = DataObjectCodec.dataInput(payload);
+        in.readLong();
+        byte op = in.readByte();
+        if (op == OP_SAVE) {
+            applySave(DataObjectCodec.readObject(in));
+        } else if (op == OP_DELETE) {
+            Class<?> dataClass = DataObjectCodec.readClass(in);
+            applyDelete(dataClass, DataObjectCodec.readValue(in, null));
+        } else {
+            throw new IOException("Unknown record type " + op);
+        }
+    }
+
+    /**
+     * Finds the object a reference refers to, creating an empty placeholder
+     * if that object has not been replayed yet.
+     */
+    Object resolve(Key key) {
+        ClassStore store = classStore(key.objectClass);
+        Object dataObject = store.objects.get(key.id);
+        if (dataObject == null) {
+            dataObject = placeholders.get(key);
+            if (dataObject == null) {
+                dataObject = store.info.newInstance();
+                store.info.setId(dataObject, key.id);
+                placeholders.put(key, dataObject);
+            }
+        }
+        return dataObject;
+    }
+
+    /**
+     * Checks whether a list holds a specific object instance.
+     */
+    static boolean containsInstance(Collection<?> list, Object dataObject) {
+        for (Object o : list) {
+            if (o == dataObject) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds or removes a data object from the collection on the other side of
+     * one of its relations, so that both sides agree after a replay.
+     */
+    @SuppressWarnings("unchecked")
+    static void updateInverse(DataClassInfo info, PropertyInfo prop,
+                              Object dataObject, Object related, boolean add) {
+        PropertyInfo inverse = info.inverseOf(prop);
+        if (related == null || inverse == null || !inverse.isToMany()) {
+            return;
+        }
+        DataClassInfo relatedInfo = DataClassInfo.forClass(related.getClass());
+        relatedInfo.initializeCollections(related);
+        Collection<Object> collection = (Collection<Object>) relatedInfo.get(related, inverse);
+        if (add) {
+            if (!containsInstance(collection, dataObject)) {
+                collection.add(dataObject);
+            }
+        } else {
+            for (Iterator<Object> i = collection.iterator(); i.hasNext();) {
+                if (i.next() == dataObject) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays a save record.
+     */
+    @SuppressWarnings("unchecked")
+    void applySave(DataRecord record) {
+        ClassStore store = classStore(record.dataClass);
+        DataClassInfo info = store.info;
+        Object dataObject = resolve(new Key(info.dataClass, record.id));
+        for (Entry<String, Object> e : record.values.entrySet()) {
+            PropertyInfo prop = info.propertyMap.get(e.getKey());
+            Object value = e.getValue();
+            if (prop.kind == PropertyKind.VALUE) {
+                if (value != null || !prop.field.getType().isPrimitive()) {
+                    info.set(dataObject, prop, value);
+                }
+            } else if (prop.kind == PropertyKind.TO_ONE) {
+                Object related = (value == null) ? null : resolve((Key) value);
+                Object old = info.get(dataObject, prop);
+                if (old != related) {
+                    updateInverse(info, prop, dataObject, old, false);
+                    info.set(dataObject, prop, related);
+                    updateInverse(info, prop, dataObject, related, true);
+                }
+            } else if (prop.kind == PropertyKind.TO_MANY_OWNING) {
+                List<Object> related = new ArrayList<Object>();
+                if (value != null) {
+                    for (Key relatedKey : (List<Key>) value) {
+                        related.add(resolve(relatedKey));
+                    }
+                }
+                Collection<?> old = (Collection<?>) info.get(dataObject, prop);
+                if (old != null) {
+                    for (Object o : old) {
+                        if (!containsInstance(related, o)) {
+                            updateInverse(info, prop, dataObject, o, false);
+                        }
+                    }
+                }
+                info.set(dataObject, prop, related);
+                for (Object o : related) {
+                    updateInverse(info, prop, dataObject, o, true);
+                }
+            }
+        }
+        placeholders.remove(new Key(info.dataClass, record.id));
+        store.put(record.id, dataObject);
+    }
+
+    /**
+     * Replays a delete record.
+     */
+    void applyDelete(Class<?> dataClass, Object id) {
+        ClassStore store = classStore(dataClass);
+        DataClassInfo info = store.info;
+        Object dataObject = store.objects.get(id);
+        if (dataObject == null) {
+            return;
+        }
+        for (PropertyInfo prop : info.properties) {
+            if (prop.kind == PropertyKind.TO_ONE
+                    || prop.kind == PropertyKind.TO_MANY_OWNING) {
+                for (Object related : relatedObjects(info, dataObject, prop)) {
+                    updateInverse(info, prop, dataObject, related, false);
+                }
+            }
+        }
+        store.remove(id);
+    }
+
+    // Writing
+
+    /**
+     * Frames a record payload and adds it to the pending records.
+     */
+    void appendRecord(byte op, Object dataObject) throws DataStoreException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(++sequence);
+            out.writeByte(op);
+            if (op == OP_SAVE) {
+                DataObjectCodec.writeObject(out, dataObject);
+            } else {
+                DataClassInfo info = DataClassInfo.forClass(dataObject.getClass());
+                out.writeUTF(info.dataClass.getName());
+                DataObjectCodec.writeValue(out, info.getId(dataObject));
+            }
+            out.flush();
+            writeFrame(new DataOutputStream(pending), bytes.toByteArray());
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Writes one framed record: its length, its CRC32, then the payload.
+     */
+    static void writeFrame(DataOutputStream out, byte[] payload)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Waits until no other thread has a transaction in progress, so that a
+     * save or delete is never made part of another thread's transaction and
+     * undone by its rollback.
+     */
+    void awaitTransaction() throws DataStoreException {
+        while (transaction != null
+                && transaction.owner != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataStoreException(
+                        "Interrupted waiting for a transaction to end", e);
+            }
+        }
+    }
+
+    /**
+     * Throws if an earlier append left the log ending in a torn record.
+     */
+    void checkLog() throws DataStoreException {
+        if (logFailure != null) {
+            throw new DataStoreException(logFile
+                    + " could not be repaired after a failed write",
+                    logFailure);
+        }
+    }
+
+    /**
+     * Appends the pending records to the log, unless a transaction is in
+     * progress, and marks their objects clean. If the append fails, the log
+     * is cut back to its size before the append and the records are kept
+     * pending.
+     */
+    synchronized void writePending() throws DataStoreException {
+        if (transaction != null || pending.size() == 0) {
+            return;
+        }
+        checkLog();
+        long logEnd = -1;
+        try {
+            logEnd = logChannel.size();
+            ByteBuffer records = ByteBuffer.wrap(pending.toByteArray());
+            while (records.hasRemaining()) {
+                logChannel.write(records);
+            }
+            if (syncWrites) {
+                logChannel.force(false);
+            }
+        } catch (IOException e) {
+            try {
+                if (logEnd < 0) {
+                    throw e;
+                }
+                logChannel.truncate(logEnd);
+                logChannel.position(logEnd);
+            } catch (IOException truncateError) {
+                logFailure = truncateError;
+            }
+            throw new DataStoreException(e);
+        }
+        for (DirtyTracked tracked : pendingObjects) {
+            tracked.clearDirty();
+        }
+        pending.reset();
+        pendingObjects.clear();
+    }
+
+    @Override
+    void objectStored(Object dataObject) throws DataStoreException {
+        appendRecord(OP_SAVE, dataObject);
+        if (dataObject instanceof DirtyTracked) {
+            pendingObjects.add((DirtyTracked) dataObject);
+        }
+    }
+
+    @Override
+    void objectRemoved(Object dataObject) throws DataStoreException {
+        appendRecord(OP_DELETE, dataObject);
+    }
+
+    /**
+     * Saves the object, plus any new or changed objects which cascade from
+     * it, and appends their records to the log.
+     * 
+     * @param o
+     *            The object to save.
+     * @throws DataStoreException
+     *             if the records could not be written.
+     * @see com.github.jearls.SPRaceTracker.data.MemoryDataStore#save(java.lang.Object)
+     */
+    @Override
+    public synchronized void save(Object o) throws DataStoreException {
+        awaitTransaction();
+        checkLog();
+        try {
+            super.save(o);
+        } finally {
+            writePending();
+        }
+    }
+
+    /**
+     * Removes the object, plus the objects in its cascading one-to-many
+     * relations, and appends their records to the log.
+     * 
+     * @param o
+     *            The object to remove.
+     * @throws DataStoreException
+     *             if the records could not be written.
+     * @see com.github.jearls.SPRaceTracker.data.MemoryDataStore#delete(java.lang.Object)
+     */
+    @Override
+    public synchronized void delete(Object o) throws DataStoreException {
+        awaitTransaction();
+        checkLog();
+        try {
+            super.delete(o);
+        } finally {
+            writePending();
+        }
+    }
+
+    /**
+     * Saves all the objects, appending all their records to the log in a
+     * single write.
+     * 
+     * @param objects
+     *            The objects to save.
+     * @return The number of objects saved.
+     * @throws DataStoreException
+     *             if the records could not be written.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#saveAll(java.util.Collection)
+     */
+    @Override
+    public synchronized int saveAll(Collection<?> objects)
+            throws DataStoreException {
+        awaitTransaction();
+        checkLog();
+        try {
+            for (Object o : objects) {
+                super.save(o);
+            }
+        } finally {
+            writePending();
+        }
+        return objects.size();
+    }
+
+    /**
+     * Deletes all the objects, appending all their records to the log in a
+     * single write.
+     * 
+     * @param objects
+     *            The objects to delete.
+     * @return The number of objects deleted.
+     * @throws DataStoreException
+     *             if the records could not be written.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#deleteAll(java.util.Collection)
+     */
+    @Override
+    public synchronized int deleteAll(Collection<?> objects)
+            throws DataStoreException {
+        awaitTransaction();
+        checkLog();
+        try {
+            for (Object o : objects) {
+                super.delete(o);
+            }
+        } finally {
+            writePending();
+        }
+        return objects.size();
+    }
+
+    // Transactions
+
+    /**
+     * Begins a transaction. Records are held back until the transaction is
+     * committed, then appended to the log in a single write. There is only
+     * one transaction per store; other threads wait for it to end before
+     * they save, delete or begin a transaction of their own.
+     * 
+     * @throws DataStoreException
+     *             if this thread already has a transaction in progress.
+     * @see com.github.jearls.SPRaceTracker.data.MemoryDataStore#beginTransaction()
+     */
+    @Override
+    public synchronized void beginTransaction() throws DataStoreException {
+        awaitTransaction();
+        super.beginTransaction();
+    }
+
+    /**
+     * Commits the transaction, appending its records to the log.
+     * 
+     * @throws DataStoreException
+     *             if this thread has no transaction in progress, or if the
+     *             records could not be written.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#commitTransaction()
+     */
+    @Override
+    public synchronized void commitTransaction() throws DataStoreException {
+        super.commitTransaction();
+        notifyAll();
+        writePending();
+    }
+
+    /**
+     * Rolls back the transaction by discarding its records and putting back
+     * the objects stored when it began, as
+     * {@link MemoryDataStore#rollbackTransaction()} does. Objects it saved
+     * stay marked as changed, so that saving them again writes them.
+     * 
+     * @throws DataStoreException
+     *             if this thread has no transaction in progress.
+     * @see com.github.jearls.SPRaceTracker.data.MemoryDataStore#rollbackTransaction()
+     */
+    @Override
+    public synchronized void rollbackTransaction() throws DataStoreException {
+        super.rollbackTransaction();
+        pending.reset();
+        pendingObjects.clear();
+        notifyAll();
+    }
+
+    // Compaction
+
+    /**
+     * Replaces the contents of this store with the objects of another store,
+     * then compacts, so that the loaded objects become the new snapshot.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.MemoryDataStore#loadFrom(com.github.jearls.SPRaceTracker.data.DataStore,
+     *      java.lang.Class[])
+     */
+    @Override
+    public int loadFrom(DataStore source, Class<?>... dataClasses)
+            throws DataStoreException {
+        int count;
+        synchronized (this) {
+            if (transaction != null) {
+                throw new DataStoreException("Transaction in progress");
+            }
+            count = super.loadFrom(source, dataClasses);
+        }
+        compact();
+        return count;
+    }
+
+    /**
+     * Writes the whole in-memory state to a new snapshot and cuts the log
+     * back to the records written since. The state is encoded while holding
+     * the store's lock, but the snapshot file is written without it, so
+     * saves and deletes can continue meanwhile. Nothing is done while a
+     * transaction is in progress.
+     * 
+     * @throws DataStoreException
+     *             if the snapshot or the new log could not be written. The old
+     *             snapshot and log are left intact.
+     */
+    public void compact() throws DataStoreException {
+        synchronized (compactionLock) {
+            try {
+                byte[] snapshot;
+                long logPosition;
+                synchronized (this) {
+                    if (transaction != null) {
+                        return;
+                    }
+                    snapshot = encodeSnapshot();
+                    logPosition = logChannel.size();
+                }
+                File tmpSnapshot = new File(snapshotFile.getPath() + ".tmp");
+                writeFile(tmpSnapshot, ByteBuffer.wrap(snapshot));
+                Files.move(tmpSnapshot.toPath(), snapshotFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                synchronized (this) {
+                    ByteBuffer tail = ByteBuffer.allocate((int) (logChannel.size() - logPosition));
+                    while (tail.hasRemaining()) {
+                        logChannel.read(tail, logPosition + tail.position());
+                    }
+                    tail.flip();
+                    File tmpLog = new File(logFile.getPath() + ".tmp");
+                    writeFile(tmpLog, tail);
+                    logChannel.close();
+                    Files.move(tmpLog.toPath(), logFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    openLog();
+                }
+            } catch (IOException e) {
+                throw new DataStoreException(e);
+            }
+        }
+    }
+
+    /**
+     * Encodes the whole in-memory state as a snapshot.
+     */
+    byte[] encodeSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int count = 0;
+        for (ClassStore store : classStores.values()) {
+            count += store.objects.size();
+        }
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(sequence);
+        out.writeInt(count);
+        for (ClassStore store : classStores.values()) {
+            for (Object dataObject : store.objects.values()) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                DataOutputStream recordOut = new DataOutputStream(record);
+                recordOut.writeLong(sequence);
+                recordOut.writeByte(OP_SAVE);
+                DataObjectCodec.writeObject(recordOut, dataObject);
+                recordOut.flush();
+                writeFrame(out, record.toByteArray());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a buffer to a new file and forces it to disk.
+     */
+    static void writeFile(File file, ByteBuffer contents) throws IOException {
+        FileChannel channel =
+                FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE);
+        try {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Configuration and lifecycle
+
+    /**
+     * @return the current size of the log file, in bytes.
+     * @throws DataStoreException
+     *             if the size could not be read.
+     */
+    public synchronized long getLogSize() throws DataStoreException {
+        try {
+            return logChannel.size();
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * @return the log size, in bytes, above which the log is compacted.
+     */
+    public long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold
+     *            the log size, in bytes, above which the log is compacted.
+     */
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * @return true if each write is forced to disk before returning.
+     */
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    /**
+     * @param syncWrites
+     *            true to force each write to disk before returning (the
+     *            default); false to leave that to the operating system,
+     *            trading durability of the last few writes for speed.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Stops the background compaction and closes the log. Records of a
+     * transaction still in progress are discarded.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public void close() throws DataStoreException {
+        compactor.shutdown();
+        synchronized (compactionLock) {
+            synchronized (this) {
+                transaction = null;
+                notifyAll();
+                pending.reset();
+                pendingObjects.clear();
+                try {
+                    logChannel.close();
+                } catch (IOException e) {
+                    throw new DataStoreException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyInfo;
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyKind;
+import com.github.jearls.SPRaceTracker.data.DataObjectCodec.DataRecord;
+import com.github.jearls.SPRaceTracker.data.EntityCache.Key;
+
+/**
+ * <p>
+ * A read-only DataStore that serves objects straight out of a memory-mapped
+ * snapshot written by {@link MappedSnapshotExporter}. Opening it only maps
+ * the file and reads the small class directory, so startup is immediate and
+ * the heap holds nothing but the objects actually in use.
+ * </p>
+ * <p>
+ * Objects are decoded on first access and kept in an {@link EntityCache}.
+ * Their to-one references are resolved as they are decoded; their collections
+ * are lists that decode each element only when it is read, so fetching one
+ * object does not pull in the whole graph. Lists returned by
+ * {@link #fetchAll(Class)} are lazy in the same way.
+ * </p>
+ * <p>
+ * Because the decoded objects can be evicted from the cache and decoded
+ * again, the same object may be returned as different instances over time;
+ * they compare equal by ID. Saving or deleting objects throws a
+ * DataStoreException.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class MappedSnapshotDataStore extends DataStore {
+    public static final long        serialVersionUID = 1L;
+
+    final File                      file;
+    MappedByteBuffer                buffer;
+    final Map<Class<?>, ClassIndex> classIndexes     =
+            new HashMap<Class<?>, ClassIndex>();
+    final EntityCache               objectCache      = new EntityCache();
+
+    /**
+     * The sorted index of one class's objects in the snapshot.
+     */
+    class ClassIndex {
+        final DataClassInfo info;
+        final int           count;
+        final int           indexOffset;
+
+        ClassIndex(DataClassInfo info, int count, int indexOffset) {
+            this.info = info;
+            this.count = count;
+            this.indexOffset = indexOffset;
+        }
+
+        int entryOffset(int i) {
+            return indexOffset + i * MappedSnapshotExporter.INDEX_ENTRY_SIZE;
+        }
+
+        UUID idAt(int i) {
+            int entry = entryOffset(i);
+            return new UUID(buffer.getLong(entry), buffer.getLong(entry + 8));
+        }
+
+        int recordOffsetAt(int i) {
+            return buffer.getInt(entryOffset(i) + 16);
+        }
+
+        /**
+         * Binary searches the index for an ID.
+         * 
+         * @return The position of the ID in the index, or -1 if it is not
+         *         there.
+         */
+        int find(UUID id) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int compare = idAt(middle).compareTo(id);
+                if (compare < 0) {
+                    low = middle + 1;
+                } else if (compare > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Decodes the raw record at a position in the index.
+         */
+        DataRecord recordAt(int i) throws IOException {
+            ByteBuffer record = buffer.duplicate();
+            record.position(recordOffsetAt(i));
+            DataInput in = DataObjectCodec.dataInput(record);
+            DataRecord decoded = DataObjectCodec.readObject(in);
+            DataObjectCodec.readMappedCollections(in, decoded);
+            return decoded;
+        }
+
+        /**
+         * Returns the object at a position in the index, decoding it if it
+         * is not in the cache.
+         */
+        Object objectAt(int i) throws DataStoreException {
+            UUID id = idAt(i);
+            Object dataObject = objectCache.get(info.dataClass, id);
+            if (dataObject == null) {
+                try {
+                    dataObject = materialize(recordAt(i));
+                } catch (IOException e) {
+                    throw new DataStoreException(e);
+                }
+            }
+            return dataObject;
+        }
+    }
+
+    /**
+     * A read-only list of data objects that decodes each element when it is
+     * read.
+     */
+    abstract class LazyObjectList extends AbstractList<Object> {
+        abstract Object load(int index) throws DataStoreException;
+
+        @Override
+        public Object get(int index) {
+            synchronized (MappedSnapshotDataStore.this) {
+                if (buffer == null) {
+                    throw new IllegalStateException(file + " has been closed");
+                }
+                try {
+                    return load(index);
+                } catch (DataStoreException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot file.
+     * 
+     * @param file
+     *            The snapshot file written by MappedSnapshotExporter.
+     * @throws DataStoreException
+     *             if the file could not be mapped or is not a snapshot.
+     */
+    public MappedSnapshotDataStore(File file) throws DataStoreException {
+        this.file = file;
+        try {
+            FileChannel channel =
+                    FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                buffer =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                channel.size());
+            } finally {
+                // The mapping stays valid after the channel is closed.
+                channel.close();
+            }
+            ByteBuffer header = buffer.duplicate();
+            DataInput in = DataObjectCodec.dataInput(header);
+            if (in.readInt() != MappedSnapshotExporter.SNAPSHOT_MAGIC
+                    || in.readInt() != MappedSnapshotExporter.FORMAT_VERSION) {
+                throw new DataStoreException(file + " is not a snapshot");
+            }
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i += 1) {
+                DataClassInfo info =
+                        DataClassInfo.forClass(DataObjectCodec.readClass(in));
+                int count = in.readInt();
+                int indexOffset = (int) in.readLong();
+                classIndexes.put(info.dataClass, new ClassIndex(info, count,
+                        indexOffset));
+            }
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Finds the index for a class.
+     * 
+     * @throws DataStoreException
+     *             if the snapshot does not hold the class.
+     */
+    ClassIndex classIndex(Class<?> objectClass) throws DataStoreException {
+        if (buffer == null) {
+            throw new DataStoreException(file + " has been closed");
+        }
+        ClassIndex index =
+                classIndexes.get(DataObjectUtilities.entityClass(objectClass));
+        if (index == null) {
+            throw new DataStoreException(objectClass.getCanonicalName()
+                    + " is not in " + file);
+        }
+        return index;
+    }
+
+    /**
+     * Finds an object by reference, decoding it if needed.
+     * 
+     * @return The object, or null if the snapshot does not hold it.
+     */
+    Object resolve(Key key) throws DataStoreException {
+        Object dataObject = objectCache.get(key.objectClass, key.id);
+        if (dataObject == null && key.id instanceof UUID) {
+            ClassIndex index = classIndex(key.objectClass);
+            int i = index.find((UUID) key.id);
+            if (i >= 0) {
+                dataObject = index.objectAt(i);
+            }
+        }
+        return dataObject;
+    }
+
+    /**
+     * Builds a data object from its decoded record. The object is cached
+     * before its references are resolved, so that references back to it find
+     * this instance.
+     */
+    @SuppressWarnings("unchecked")
+    Object materialize(DataRecord record) throws DataStoreException {
+        DataClassInfo info = DataClassInfo.forClass(record.dataClass);
+        Object dataObject = info.newInstance();
+        info.setId(dataObject, record.id);
+        objectCache.put(info.dataClass, record.id, dataObject);
+        for (Entry<String, Object> e : record.values.entrySet()) {
+            PropertyInfo prop = info.propertyMap.get(e.getKey());
+            Object value = e.getValue();
+            if (prop.kind == PropertyKind.VALUE) {
+                if (value != null || !prop.field.getType().isPrimitive()) {
+                    info.set(dataObject, prop, value);
+                }
+            } else if (prop.kind == PropertyKind.TO_ONE) {
+                info.set(dataObject, prop,
+                        (value == null) ? null : resolve((Key) value));
+            } else {
+                final List<Key> references =
+                        (value == null) ? Collections.<Key> emptyList()
+                                : (List<Key>) value;
+                info.set(dataObject, prop, new LazyObjectList() {
+                    Object load(int index) throws DataStoreException {
+                        return resolve(references.get(index));
+                    }
+
+                    public int size() {
+                        return references.size();
+                    }
+                });
+            }
+        }
+        return dataObject;
+    }
+
+    /**
+     * Checks whether a decoded record matches the field values, comparing
+     * references by class and ID so that nothing needs to be decoded.
+     * 
+     * @return true or false, or null if the fields cannot be compared on the
+     *         record and the object must be decoded instead.
+     */
+    static Boolean recordMatches(DataClassInfo info, DataRecord record,
+                                 Map<String, Object> fieldData) {
+        for (Entry<String, Object> e : fieldData.entrySet()) {
+            PropertyInfo prop = info.propertyMap.get(e.getKey());
+            if (prop == null || prop.isToMany()) {
+                return null;
+            }
+            Object expected = DataObjectUtilities.keyValue(e.getValue());
+            Object actual = record.values.get(e.getKey());
+            if ((expected == null) ? (actual != null) : !expected
+                    .equals(actual)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Always fails; the snapshot is read-only.
+     * 
+     * @throws DataStoreException
+     *             always.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     */
+    @Override
+    public void save(Object o) throws DataStoreException {
+        throw new DataStoreException(file + " is a read-only snapshot");
+    }
+
+    /**
+     * Always fails; the snapshot is read-only.
+     * 
+     * @throws DataStoreException
+     *             always.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Object o) throws DataStoreException {
+        throw new DataStoreException(file + " is a read-only snapshot");
+    }
+
+    /**
+     * Fetches an object by binary searching its class's index.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param ID
+     *            The ID of the object to fetch.
+     * @return The object.
+     * @throws DataStoreNotFoundException
+     *             if the snapshot holds no object with that ID.
+     * @throws DataStoreException
+     *             if the object could not be decoded.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByID(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public synchronized <T> T fetchByID(Class<T> objectClass, Object ID)
+            throws DataStoreNotFoundException, DataStoreException {
+        Object found = resolve(new Key(objectClass, ID));
+        if (found == null) {
+            throw new DataStoreNotFoundException(ID + " not found for "
+                    + objectClass.getCanonicalName());
+        }
+        return objectClass.cast(found);
+    }
+
+    /**
+     * Fetches zero or more objects from the snapshot who have a field with a
+     * specific value.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param field
+     *            The field name to search within the objects.
+     * @param value
+     *            The value to look for in that field.
+     * @return A List of zero or more matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByField(java.lang.Class,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T> List<T> fetchByField(Class<T> objectClass, String field,
+                                    Object value) throws DataStoreException {
+        return fetchByFields(objectClass,
+                Collections.singletonMap(field, value));
+    }
+
+    /**
+     * Fetches zero or more objects from the snapshot who have fields that
+     * match all of the field value mappings in fieldData. This scans the
+     * class's records, but only decodes into objects the records that match.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -&gt; field value.
+     * @return A List of zero or more matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByFields(java.lang.Class,
+     *      java.util.Map)
+     */
+    @Override
+    public synchronized <T> List<T> fetchByFields(Class<T> objectClass,
+                                                  Map<String, Object> fieldData)
+            throws DataStoreException {
+        ClassIndex index = classIndex(objectClass);
+        List<T> results = new ArrayList<T>();
+        try {
+            for (int i = 0; i < index.count; i += 1) {
+                Boolean matches =
+                        recordMatches(index.info, index.recordAt(i), fieldData);
+                if (matches == null) {
+                    Object dataObject = index.objectAt(i);
+                    if (DataObjectUtilities.matches(dataObject, fieldData)) {
+                        results.add(objectClass.cast(dataObject));
+                    }
+                } else if (matches) {
+                    results.add(objectClass.cast(index.objectAt(i)));
+                }
+            }
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Returns a read-only list of all objects of a class, in ID order, which
+     * decodes each object when it is read.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @return A List of the objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchAll(java.lang.Class)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized <T> List<T> fetchAll(Class<T> objectClass)
+            throws DataStoreException {
+        final ClassIndex index = classIndex(objectClass);
+        return (List<T>) new LazyObjectList() {
+            Object load(int i) throws DataStoreException {
+                return index.objectAt(i);
+            }
+
+            public int size() {
+                return index.count;
+            }
+        };
+    }
+
+    /**
+     * @return the cache of decoded objects.
+     */
+    public EntityCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * Releases the mapping. Objects already decoded stay usable, but their
+     * collections can no longer load elements that were not read yet.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public synchronized void close() {
+        buffer = null;
+        objectCache.clear();
+    }
+}
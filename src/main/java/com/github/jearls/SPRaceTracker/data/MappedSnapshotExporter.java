@@ -0,0 +1,185 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Writes the objects of a DataStore into a snapshot file that
+ * {@link MappedSnapshotDataStore} can serve directly out of memory-mapped
+ * storage.
+ * </p>
+ * <p>
+ * The file starts with a header (magic number, format version, class count)
+ * and a directory listing, for each class, its name, object count, and the
+ * offset of its index. Each index is an array of fixed-size entries (ID most
+ * significant bits, ID least significant bits, record offset) sorted by ID,
+ * so an object can be found with a binary search. Each record is the
+ * object's DataObjectCodec encoding followed by its mapped collections.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class MappedSnapshotExporter {
+    public static final long serialVersionUID = 1L;
+
+    static final int         SNAPSHOT_MAGIC   = 0x5350524d;
+    static final int         FORMAT_VERSION   = 1;
+    static final int         INDEX_ENTRY_SIZE = 20;
+
+    final File               file;
+
+    /**
+     * Creates an exporter that writes to a snapshot file.
+     * 
+     * @param file
+     *            The snapshot file to write. It is replaced atomically once
+     *            the new snapshot is complete.
+     */
+    public MappedSnapshotExporter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Encodes a single object's record.
+     */
+    static byte[] encodeRecord(Object dataObject) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        DataObjectCodec.writeObject(out, dataObject);
+        DataObjectCodec.writeMappedCollections(out, dataObject);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Exports the DataStore data for all classes related, directly or
+     * indirectly, to the listed dataClasses.
+     * 
+     * @param store
+     *            The DataStore that holds the data to export.
+     * @param dataClasses
+     *            The classes to be exported.
+     * @return The number of objects exported.
+     * @throws DataStoreException
+     *             if the objects could not be fetched, have IDs that are not
+     *             UUIDs, or could not be written.
+     */
+    public int exportData(DataStore store, Class<?>... dataClasses)
+            throws DataStoreException {
+        Map<Class<?>, SortedMap<UUID, byte[]>> records =
+                new LinkedHashMap<Class<?>, SortedMap<UUID, byte[]>>();
+        for (Class<?> dataClass : MemoryDataStore.relatedClasses(dataClasses)) {
+            final DataClassInfo info = DataClassInfo.forClass(dataClass);
+            final SortedMap<UUID, byte[]> classRecords =
+                    new TreeMap<UUID, byte[]>();
+            store.forEach(dataClass, new DataStoreVisitor<Object>() {
+                public void visit(Object dataObject) throws DataStoreException {
+                    Object id = info.getId(dataObject);
+                    if (!(id instanceof UUID)) {
+                        throw new DataStoreException("Cannot export "
+                                + info.dataClass.getSimpleName() + " " + id
+                                + ": IDs must be UUIDs");
+                    }
+                    try {
+                        classRecords.put((UUID) id, encodeRecord(dataObject));
+                    } catch (IOException e) {
+                        throw new DataStoreException(e);
+                    }
+                }
+            });
+            records.put(info.dataClass, classRecords);
+        }
+        try {
+            return writeSnapshot(records);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+    }
+
+    /**
+     * Writes the directory of the snapshot.
+     */
+    static void writeDirectory(DataOutputStream out,
+                               Map<Class<?>, SortedMap<UUID, byte[]>> records,
+                               Map<Class<?>, Long> indexOffsets)
+            throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(records.size());
+        for (Entry<Class<?>, SortedMap<UUID, byte[]>> e : records.entrySet()) {
+            out.writeUTF(e.getKey().getName());
+            out.writeInt(e.getValue().size());
+            Long indexOffset = indexOffsets.get(e.getKey());
+            out.writeLong((indexOffset == null) ? 0 : indexOffset);
+        }
+    }
+
+    /**
+     * Lays out and writes the snapshot file.
+     */
+    int writeSnapshot(Map<Class<?>, SortedMap<UUID, byte[]>> records)
+            throws IOException {
+        // The directory's size does not depend on the offsets in it, so it
+        // can be measured before they are known.
+        Map<Class<?>, Long> indexOffsets = new LinkedHashMap<Class<?>, Long>();
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        writeDirectory(new DataOutputStream(directory), records, indexOffsets);
+        long position = directory.size();
+        for (Entry<Class<?>, SortedMap<UUID, byte[]>> e : records.entrySet()) {
+            indexOffsets.put(e.getKey(), position);
+            position += (long) e.getValue().size() * INDEX_ENTRY_SIZE;
+            for (byte[] record : e.getValue().values()) {
+                position += record.length;
+            }
+        }
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot would be " + position
+                    + " bytes, larger than a single mapping can hold");
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        int count = 0;
+        try {
+            DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(fileOut));
+            writeDirectory(out, records, indexOffsets);
+            for (Entry<Class<?>, SortedMap<UUID, byte[]>> e : records
+                    .entrySet()) {
+                long recordOffset =
+                        indexOffsets.get(e.getKey())
+                                + (long) e.getValue().size() * INDEX_ENTRY_SIZE;
+                for (Entry<UUID, byte[]> record : e.getValue().entrySet()) {
+                    out.writeLong(record.getKey().getMostSignificantBits());
+                    out.writeLong(record.getKey().getLeastSignificantBits());
+                    out.writeInt((int) recordOffset);
+                    recordOffset += record.getValue().length;
+                }
+                for (byte[] record : e.getValue().values()) {
+                    out.write(record);
+                    count += 1;
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+}
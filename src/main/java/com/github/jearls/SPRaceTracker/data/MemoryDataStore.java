@@ -0,0 +1,686 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyInfo;
+import com.github.jearls.SPRaceTracker.data.DataClassInfo.PropertyKind;
+import com.github.jearls.SPRaceTracker.data.EntityCache.Key;
+
+/**
+ * <p>
+ * A DataStore that keeps every object in memory. Objects of each class are
+ * held in a map by ID, and field-equality queries are answered from hash
+ * indexes: one over the @IdentifiedBy fields of each class, built up front,
+ * and one over each other combination of fields that is queried, built the
+ * first time that combination is asked for.
+ * </p>
+ * <p>
+ * Saving an object also saves any new or changed objects reachable from it
+ * through cascading relations, and assigns random UUIDs to objects that have
+ * no ID. Deleting an object also deletes the objects in its cascading
+ * one-to-many relations.
+ * </p>
+ * <p>
+ * A MemoryDataStore can be used on its own, for tests and benchmarks, or as a
+ * session over another DataStore: {@link #loadFrom(DataStore, Class...)} copies
+ * the other store's objects in, and {@link #flushTo(DataStore)} writes back
+ * everything saved or deleted since.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class MemoryDataStore extends DataStore {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * A hash index over a fixed list of fields of one data class, mapping the
+     * field values to the IDs of the objects that have them.
+     */
+    static class FieldIndex {
+        final List<String>                 fields;
+        final Map<List<Object>, Set<Object>> entries  =
+                                                        new HashMap<List<Object>, Set<Object>>();
+        final Map<Object, List<Object>>    keysByID =
+                                                        new HashMap<Object, List<Object>>();
+
+        FieldIndex(List<String> fields) {
+            this.fields = fields;
+        }
+
+        /**
+         * Builds the index key of a data object from its current field
+         * values.
+         */
+        List<Object> keyFor(Object dataObject) {
+            List<Object> key = new ArrayList<Object>(fields.size());
+            for (String field : fields) {
+                key.add(DataObjectUtilities.keyValue(DataObjectUtilities
+                        .getProperty(dataObject, field)));
+            }
+            return key;
+        }
+
+        void add(Object id, Object dataObject) {
+            remove(id);
+            List<Object> key = keyFor(dataObject);
+            Set<Object> ids = entries.get(key);
+            if (ids == null) {
+                ids = new LinkedHashSet<Object>();
+                entries.put(key, ids);
+            }
+            ids.add(id);
+            keysByID.put(id, key);
+        }
+
+        void remove(Object id) {
+            List<Object> key = keysByID.remove(id);
+            if (key != null) {
+                Set<Object> ids = entries.get(key);
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    entries.remove(key);
+                }
+            }
+        }
+
+        Set<Object> lookup(List<Object> key) {
+            Set<Object> ids = entries.get(key);
+            return (ids == null) ? Collections.emptySet() : ids;
+        }
+    }
+
+    /**
+     * The objects and indexes of a single data class.
+     */
+    static class ClassStore {
+        final DataClassInfo                 info;
+        final Map<Object, Object>           objects =
+                                                        new LinkedHashMap<Object, Object>();
+        final Map<List<String>, FieldIndex> indexes =
+                                                        new HashMap<List<String>, FieldIndex>();
+
+        ClassStore(DataClassInfo info) {
+            this.info = info;
+            if (!info.identityFields.isEmpty()) {
+                index(info.identityFields);
+            }
+        }
+
+        /**
+         * Returns the index over a list of fields, building it if it does not
+         * exist yet.
+         */
+        FieldIndex index(List<String> fields) {
+            List<String> sortedFields = new ArrayList<String>(fields);
+            Collections.sort(sortedFields);
+            FieldIndex index = indexes.get(sortedFields);
+            if (index == null) {
+                index = new FieldIndex(sortedFields);
+                for (Map.Entry<Object, Object> e : objects.entrySet()) {
+                    index.add(e.getKey(), e.getValue());
+                }
+                indexes.put(sortedFields, index);
+            }
+            return index;
+        }
+
+        void put(Object id, Object dataObject) {
+            objects.put(id, dataObject);
+            for (FieldIndex index : indexes.values()) {
+                index.add(id, dataObject);
+            }
+        }
+
+        void remove(Object id) {
+            objects.remove(id);
+            for (FieldIndex index : indexes.values()) {
+                index.remove(id);
+            }
+        }
+
+        /**
+         * Replaces the objects with a copy taken earlier, rebuilding the
+         * indexes.
+         */
+        void restore(Map<Object, Object> copy) {
+            objects.clear();
+            for (FieldIndex index : indexes.values()) {
+                index.entries.clear();
+                index.keysByID.clear();
+            }
+            for (Map.Entry<Object, Object> e : copy.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * The state of the store when a transaction began, put back if the
+     * transaction is rolled back.
+     */
+    static class Snapshot {
+        final Thread                             owner   =
+                                                                 Thread.currentThread();
+        final Map<Class<?>, Map<Object, Object>> objects =
+                                                                 new HashMap<Class<?>, Map<Object, Object>>();
+        final Map<Key, Object>                   saved;
+        final Map<Key, Object>                   deleted;
+        final Set<Key>                           persistent;
+
+        Snapshot(MemoryDataStore store) {
+            for (Map.Entry<Class<?>, ClassStore> e : store.classStores
+                    .entrySet()) {
+                objects.put(e.getKey(), new LinkedHashMap<Object, Object>(e
+                        .getValue().objects));
+            }
+            saved = new LinkedHashMap<Key, Object>(store.saved);
+            deleted = new LinkedHashMap<Key, Object>(store.deleted);
+            persistent = new HashSet<Key>(store.persistent);
+        }
+    }
+
+    final Map<Class<?>, ClassStore> classStores =
+                                                        new HashMap<Class<?>, ClassStore>();
+
+    /**
+     * The objects saved since the last load or flush, in the order they were
+     * saved.
+     */
+    final Map<Key, Object>          saved       =
+                                                        new LinkedHashMap<Key, Object>();
+
+    /**
+     * The objects deleted since the last load or flush that exist in the
+     * backing store.
+     */
+    final Map<Key, Object>          deleted     =
+                                                        new LinkedHashMap<Key, Object>();
+
+    /**
+     * The keys of the objects that exist in the backing store, as of the last
+     * load or flush.
+     */
+    final Set<Key>                  persistent  = new HashSet<Key>();
+
+    /**
+     * The state saved by the transaction in progress, or null.
+     */
+    Snapshot                        transaction = null;
+
+    /**
+     * Returns the store for a data class, creating it if needed.
+     */
+    ClassStore classStore(Class<?> dataClass) {
+        DataClassInfo info = DataClassInfo.forClass(dataClass);
+        ClassStore store = classStores.get(info.dataClass);
+        if (store == null) {
+            store = new ClassStore(info);
+            classStores.put(info.dataClass, store);
+        }
+        return store;
+    }
+
+    /**
+     * Returns the objects held in a field of a data object: none, one, or the
+     * contents of a collection.
+     */
+    static Collection<?> relatedObjects(DataClassInfo info, Object dataObject,
+                                        PropertyInfo prop) {
+        Object value = info.get(dataObject, prop);
+        if (value == null) {
+            return Collections.emptyList();
+        } else if (prop.isToMany()) {
+            return new ArrayList<Object>((Collection<?>) value);
+        } else {
+            return Collections.singletonList(value);
+        }
+    }
+
+    /**
+     * Returns true if a data object may have changed since it was stored:
+     * either it records its changes and has some, or it does not record them.
+     * Storing an object in memory does not mark it clean, since its changes
+     * have not been persisted yet; only the store that persists them, such as
+     * the target of {@link #flushTo(DataStore)}, may do that.
+     */
+    static boolean isDirty(Object dataObject) {
+        return !(dataObject instanceof DirtyTracked)
+                || ((DirtyTracked) dataObject).isDirty();
+    }
+
+    /**
+     * Stores a data object and the objects that cascade from it. Objects that
+     * are already stored and have not changed are not stored again, but the
+     * objects that cascade from them are still walked, as
+     * EBeanDataStore.save() does.
+     * 
+     * @param dataObject
+     *            The object to store.
+     * @param visited
+     *            The objects already handled by this save.
+     */
+    void store(Object dataObject, Set<Object> visited)
+            throws DataStoreException {
+        if (!visited.add(dataObject)) {
+            return;
+        }
+        ClassStore store = classStore(dataObject.getClass());
+        DataClassInfo info = store.info;
+        Object id = info.getId(dataObject);
+        if (id == null || store.objects.get(id) != dataObject
+                || isDirty(dataObject)) {
+            put(store, id, dataObject);
+        }
+        for (PropertyInfo prop : info.properties) {
+            if (prop.cascadeSave) {
+                for (Object related : relatedObjects(info, dataObject, prop)) {
+                    store(related, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a single data object into its class's store, giving it an ID if
+     * it has none.
+     */
+    void put(ClassStore store, Object id, Object dataObject)
+            throws DataStoreException {
+        DataClassInfo info = store.info;
+        if (id == null) {
+            if (info.idField.getType() != UUID.class) {
+                throw new DataStoreException("Cannot generate an ID for "
+                        + info.dataClass.getName());
+            }
+            id = UUID.randomUUID();
+            info.setId(dataObject, id);
+        }
+        info.initializeCollections(dataObject);
+        store.put(id, dataObject);
+        Key key = new Key(info.dataClass, id);
+        saved.put(key, dataObject);
+        deleted.remove(key);
+        objectStored(dataObject);
+    }
+
+    /**
+     * Removes a data object and the objects in its cascading one-to-many
+     * relations.
+     */
+    void remove(Object dataObject, Set<Object> visited)
+            throws DataStoreException {
+        if (!visited.add(dataObject)) {
+            return;
+        }
+        ClassStore store = classStore(dataObject.getClass());
+        DataClassInfo info = store.info;
+        Object id = info.getId(dataObject);
+        if (id == null) {
+            return;
+        }
+        store.remove(id);
+        Key key = new Key(info.dataClass, id);
+        saved.remove(key);
+        if (persistent.contains(key)) {
+            deleted.put(key, dataObject);
+        }
+        objectRemoved(dataObject);
+        for (PropertyInfo prop : info.properties) {
+            if (prop.cascadeDelete && prop.kind == PropertyKind.TO_MANY_MAPPED) {
+                for (Object related : relatedObjects(info, dataObject, prop)) {
+                    remove(related, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called after each object is stored by a save, including the objects
+     * reached through cascades. Subclasses may override this to persist the
+     * object; the default does nothing.
+     * 
+     * @param dataObject
+     *            The object that was stored.
+     * @throws DataStoreException
+     *             to fail the save.
+     */
+    void objectStored(Object dataObject) throws DataStoreException {
+    }
+
+    /**
+     * Called after each object is removed by a delete, including the objects
+     * reached through cascades. Subclasses may override this to persist the
+     * removal; the default does nothing.
+     * 
+     * @param dataObject
+     *            The object that was removed.
+     * @throws DataStoreException
+     *             to fail the delete.
+     */
+    void objectRemoved(Object dataObject) throws DataStoreException {
+    }
+
+    /**
+     * Saves the object, plus any new or changed objects which cascade from
+     * it, into memory.
+     * 
+     * @param o
+     *            The object to save.
+     * @throws DataStoreException
+     *             if an object has no ID and one cannot be generated.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     */
+    @Override
+    public synchronized void save(Object o) throws DataStoreException {
+        store(o, DataObjectUtilities.newVisitedSet());
+    }
+
+    /**
+     * Removes the object, plus the objects in its cascading one-to-many
+     * relations, from memory.
+     * 
+     * @param o
+     *            The object to remove.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     */
+    @Override
+    public synchronized void delete(Object o) throws DataStoreException {
+        remove(o, DataObjectUtilities.newVisitedSet());
+    }
+
+    /**
+     * Begins a transaction by copying the store's maps of objects, so that
+     * saves and deletes can be undone. There is only one transaction per
+     * store; saves and deletes made by other threads while it is in progress
+     * become part of it.
+     * 
+     * @throws DataStoreException
+     *             if a transaction is already in progress.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#beginTransaction()
+     */
+    @Override
+    public synchronized void beginTransaction() throws DataStoreException {
+        if (transaction != null) {
+            throw new DataStoreException("Transaction already in progress");
+        }
+        transaction = new Snapshot(this);
+    }
+
+    /**
+     * Commits the transaction, keeping its saves and deletes.
+     * 
+     * @throws DataStoreException
+     *             if this thread has no transaction in progress.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#commitTransaction()
+     */
+    @Override
+    public synchronized void commitTransaction() throws DataStoreException {
+        if (transaction == null
+                || transaction.owner != Thread.currentThread()) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        transaction = null;
+    }
+
+    /**
+     * Rolls back the transaction: objects it saved that were not stored
+     * before are removed, objects it deleted are put back, and the changes
+     * pending for {@link #flushTo(DataStore)} are as they were. Objects are
+     * held by reference, so changes made to the fields of objects that were
+     * already stored are not undone.
+     * 
+     * @throws DataStoreException
+     *             if this thread has no transaction in progress.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#rollbackTransaction()
+     */
+    @Override
+    public synchronized void rollbackTransaction() throws DataStoreException {
+        if (transaction == null
+                || transaction.owner != Thread.currentThread()) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        Snapshot snapshot = transaction;
+        transaction = null;
+        for (Map.Entry<Class<?>, ClassStore> e : classStores.entrySet()) {
+            Map<Object, Object> objects = snapshot.objects.get(e.getKey());
+            if (objects == null) {
+                objects = Collections.emptyMap();
+            }
+            e.getValue().restore(objects);
+        }
+        saved.clear();
+        saved.putAll(snapshot.saved);
+        deleted.clear();
+        deleted.putAll(snapshot.deleted);
+        persistent.clear();
+        persistent.addAll(snapshot.persistent);
+    }
+
+    /**
+     * Fetches an object from memory by its ID.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param ID
+     *            The ID of the object to fetch.
+     * @return The found object.
+     * @throws DataStoreNotFoundException
+     *             if no object exists with that ID.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByID(java.lang.Class,
+     *      java.lang.Object)
+     */
+    @Override
+    public synchronized <T> T fetchByID(Class<T> objectClass, Object ID)
+            throws DataStoreNotFoundException {
+        Object found = classStore(objectClass).objects.get(ID);
+        if (found == null) {
+            throw new DataStoreNotFoundException(ID + " not found for "
+                    + objectClass.getCanonicalName());
+        }
+        return objectClass.cast(found);
+    }
+
+    /**
+     * Fetches zero or more objects from memory who have a field with a
+     * specific value.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param field
+     *            The field name to search within the objects.
+     * @param value
+     *            The value to look for in that field.
+     * @return A List of zero or more matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByField(java.lang.Class,
+     *      java.lang.String, java.lang.Object)
+     */
+    @Override
+    public <T> List<T> fetchByField(Class<T> objectClass, String field,
+                                    Object value) throws DataStoreException {
+        return fetchByFields(objectClass,
+                Collections.singletonMap(field, value));
+    }
+
+    /**
+     * Fetches zero or more objects from memory who have fields that match all
+     * of the field value mappings in fieldData. The lookup is made through
+     * the hash index over exactly those fields, which is built on first use.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @param fieldData
+     *            A mapping of field name -> field value.
+     * @return A List of zero or more matching objects.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchByFields(java.lang.Class,
+     *      java.util.Map)
+     */
+    @Override
+    public synchronized <T> List<T> fetchByFields(Class<T> objectClass,
+                                                  Map<String, Object> fieldData)
+            throws DataStoreException {
+        if (fieldData.isEmpty()) {
+            return fetchAll(objectClass);
+        }
+        ClassStore store = classStore(objectClass);
+        FieldIndex index =
+                store.index(new ArrayList<String>(fieldData.keySet()));
+        List<Object> key = new ArrayList<Object>(index.fields.size());
+        for (String field : index.fields) {
+            key.add(DataObjectUtilities.keyValue(fieldData.get(field)));
+        }
+        List<T> results = new ArrayList<T>();
+        for (Object id : index.lookup(key)) {
+            results.add(objectClass.cast(store.objects.get(id)));
+        }
+        return results;
+    }
+
+    /**
+     * Fetches all objects of a given class from memory.
+     * 
+     * @param objectClass
+     *            The object class to fetch and return.
+     * @return A List of the objects, in the order they were first saved.
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#fetchAll(java.lang.Class)
+     */
+    @Override
+    public synchronized <T> List<T> fetchAll(Class<T> objectClass)
+            throws DataStoreException {
+        List<T> results = new ArrayList<T>();
+        for (Object dataObject : classStore(objectClass).objects.values()) {
+            results.add(objectClass.cast(dataObject));
+        }
+        return results;
+    }
+
+    /**
+     * Finds the listed data classes plus every data class related to them,
+     * directly or indirectly.
+     */
+    static Set<Class<?>> relatedClasses(Class<?>... dataClasses) {
+        Set<Class<?>> found = new LinkedHashSet<Class<?>>();
+        Queue<Class<?>> toCheck =
+                new LinkedList<Class<?>>(Arrays.asList(dataClasses));
+        while (!toCheck.isEmpty()) {
+            DataClassInfo info = DataClassInfo.forClass(toCheck.remove());
+            if (found.add(info.dataClass)) {
+                for (PropertyInfo prop : info.properties) {
+                    if (prop.relatedClass != null) {
+                        toCheck.add(prop.relatedClass);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Replaces the contents of this store with the objects of another store.
+     * The listed classes, plus every class related to them, are loaded. The
+     * objects are fetched in a single transaction of the source store, so
+     * that each object is loaded once and shared by every object that refers
+     * to it.
+     * 
+     * @param source
+     *            The store to load from.
+     * @param dataClasses
+     *            The data classes to load.
+     * @return The number of objects loaded.
+     * @throws DataStoreException
+     *             if a transaction is in progress, or if the source store
+     *             could not be read.
+     */
+    public synchronized int loadFrom(DataStore source, Class<?>... dataClasses)
+            throws DataStoreException {
+        if (transaction != null) {
+            throw new DataStoreException("Transaction in progress");
+        }
+        classStores.clear();
+        saved.clear();
+        deleted.clear();
+        persistent.clear();
+        int count = 0;
+        source.beginTransaction();
+        try {
+            for (Class<?> dataClass : relatedClasses(dataClasses)) {
+                ClassStore store = classStore(dataClass);
+                for (Object dataObject : source.fetchAll(dataClass)) {
+                    Object id = store.info.getId(dataObject);
+                    store.put(id, dataObject);
+                    persistent.add(new Key(store.info.dataClass, id));
+                    count += 1;
+                }
+            }
+            source.commitTransaction();
+        } catch (DataStoreException e) {
+            rollbackQuietly(source);
+            throw e;
+        }
+        return count;
+    }
+
+    /**
+     * Writes every object saved or deleted since the last load or flush to
+     * another store, in a single transaction of that store.
+     * 
+     * @param target
+     *            The store to write to.
+     * @return The number of objects written or deleted.
+     * @throws DataStoreException
+     *             if a transaction is in progress, or if the target store
+     *             could not be written. The pending changes are kept, so
+     *             the flush can be retried.
+     */
+    public synchronized int flushTo(DataStore target) throws DataStoreException {
+        if (transaction != null) {
+            throw new DataStoreException("Transaction in progress");
+        }
+        int count = 0;
+        target.beginTransaction();
+        try {
+            count += target.saveAll(new ArrayList<Object>(saved.values()));
+            count += target.deleteAll(new ArrayList<Object>(deleted.values()));
+            target.commitTransaction();
+        } catch (DataStoreException e) {
+            rollbackQuietly(target);
+            throw e;
+        }
+        persistent.addAll(saved.keySet());
+        persistent.removeAll(deleted.keySet());
+        saved.clear();
+        deleted.clear();
+        return count;
+    }
+
+    /**
+     * Rolls back a transaction after a failure, ignoring any further error so
+     * that the original failure is the one reported.
+     */
+    static void rollbackQuietly(DataStore store) {
+        try {
+            store.rollbackTransaction();
+        } catch (DataStoreException e) {
+        }
+    }
+
+    /**
+     * @return the number of objects saved or deleted since the last load or
+     *         flush.
+     */
+    public synchronized int getPendingChangeCount() {
+        return saved.size() + deleted.size();
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * OperationStatistics are a snapshot of the statistics an
+ * {@link InstrumentedDataStore} has gathered for one DataStore operation on
+ * one data class: how often it was called, how often it failed, how many
+ * objects it returned or wrote, and how long it took. Latencies are in
+ * microseconds.
+ * 
+ * @author jearls
+ */
+public class OperationStatistics {
+    public static final long serialVersionUID = 1L;
+
+    final String             operation;
+    final String             dataClass;
+    final long               calls;
+    final long               errors;
+    final long               rows;
+    final long               meanMicros;
+    final long               p50Micros;
+    final long               p99Micros;
+    final long               maxMicros;
+
+    @ConstructorProperties({ "operation", "dataClass", "calls", "errors",
+            "rows", "meanMicros", "p50Micros", "p99Micros", "maxMicros" })
+    public OperationStatistics(String operation, String dataClass, long calls,
+            long errors, long rows, long meanMicros, long p50Micros,
+            long p99Micros, long maxMicros) {
+        this.operation = operation;
+        this.dataClass = dataClass;
+        this.calls = calls;
+        this.errors = errors;
+        this.rows = rows;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return the DataStore method, such as "fetchByFields"
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the simple name of the data class the operation was called
+     *         for, or an empty string for operations that have none
+     */
+    public String getDataClass() {
+        return dataClass;
+    }
+
+    /**
+     * @return the number of calls
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return the number of calls that threw an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of objects returned or written by successful calls
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the mean latency, in microseconds
+     */
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    /**
+     * @return the median latency, in microseconds
+     */
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    /**
+     * @return the 99th percentile latency, in microseconds
+     */
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    /**
+     * @return the largest latency, in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return operation + "(" + dataClass + "): calls=" + calls + " errors="
+                + errors + " rows=" + rows + " mean=" + meanMicros + "us p50="
+                + p50Micros + "us p99=" + p99Micros + "us max=" + maxMicros
+                + "us";
+    }
+}
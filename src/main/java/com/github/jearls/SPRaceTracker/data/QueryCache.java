@@ -0,0 +1,234 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A QueryCache remembers the results of field-equality queries, keyed by the
+ * data class and the field -&gt; value map of the query. Entries are grouped
+ * by data class so that every cached query of a class can be dropped at once
+ * when an object of that class is written. Within a class, at most
+ * {@link #getMaxSize()} queries are kept, evicting the least recently used.
+ * 
+ * All methods are synchronized, so a single cache may be shared between
+ * threads.
+ * 
+ * @author jearls
+ */
+public class QueryCache {
+    public static final long serialVersionUID = 1L;
+
+    /**
+     * The default maximum number of queries cached per data class.
+     */
+    public static final int  DEFAULT_MAX_SIZE = 500;
+
+    /**
+     * The cached queries of a single data class, kept in access order so that
+     * the eldest entry is always the least recently used one.
+     */
+    class LRUMap extends LinkedHashMap<Map<String, Object>, List<?>> {
+        public static final long serialVersionUID = 1L;
+
+        LRUMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, Object>, List<?>> eldest) {
+            if (size() > maxSize) {
+                evictions += 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    final Map<Class<?>, LRUMap> classEntries = new HashMap<Class<?>, LRUMap>();
+    int                         maxSize;
+    long                        hits         = 0;
+    long                        misses       = 0;
+    long                        evictions    = 0;
+
+    /**
+     * Creates a cache holding at most {@link #DEFAULT_MAX_SIZE} queries per
+     * data class.
+     */
+    public QueryCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most maxSize queries per data class.
+     * 
+     * @param maxSize
+     *            The maximum number of queries to hold per data class; 0
+     *            disables the cache.
+     */
+    public QueryCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Normalizes a query's field -&gt; value map into a cache key. Related
+     * data objects are replaced by their class and ID, since data objects
+     * compare by ID but do not hash by it.
+     * 
+     * @param fieldData
+     *            The query's field -&gt; value map.
+     * @return The normalized key.
+     */
+    static Map<String, Object> normalize(Map<String, Object> fieldData) {
+        Map<String, Object> key = new HashMap<String, Object>();
+        for (Entry<String, Object> e : fieldData.entrySet()) {
+            key.put(e.getKey(), DataObjectUtilities.keyValue(e.getValue()));
+        }
+        return key;
+    }
+
+    /**
+     * Looks up the results of a query, counting a hit or a miss.
+     * 
+     * @param objectClass
+     *            The class queried.
+     * @param fieldData
+     *            The query's field -&gt; value map.
+     * @return A copy of the cached results, or null if the query is not
+     *         cached.
+     */
+    public synchronized <T> List<T> get(Class<T> objectClass,
+                                        Map<String, Object> fieldData) {
+        if (maxSize == 0) {
+            return null;
+        }
+        LRUMap entries =
+                classEntries.get(DataObjectUtilities.entityClass(objectClass));
+        List<?> cached =
+                (entries == null) ? null : entries.get(normalize(fieldData));
+        if (cached == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        List<T> results = new ArrayList<T>(cached.size());
+        for (Object o : cached) {
+            results.add(objectClass.cast(o));
+        }
+        return results;
+    }
+
+    /**
+     * Caches the results of a query.
+     * 
+     * @param objectClass
+     *            The class queried.
+     * @param fieldData
+     *            The query's field -&gt; value map.
+     * @param results
+     *            The query's results; a copy is cached.
+     */
+    public synchronized void put(Class<?> objectClass,
+                                 Map<String, Object> fieldData,
+                                 List<?> results) {
+        if (maxSize == 0) {
+            return;
+        }
+        Class<?> dataClass = DataObjectUtilities.entityClass(objectClass);
+        LRUMap entries = classEntries.get(dataClass);
+        if (entries == null) {
+            entries = new LRUMap();
+            classEntries.put(dataClass, entries);
+        }
+        entries.put(normalize(fieldData), new ArrayList<Object>(results));
+    }
+
+    /**
+     * Drops every cached query of a data class.
+     * 
+     * @param objectClass
+     *            The data class that was written.
+     */
+    public synchronized void invalidateClass(Class<?> objectClass) {
+        classEntries.remove(DataObjectUtilities.entityClass(objectClass));
+    }
+
+    /**
+     * Drops every cached query. The counters are not reset.
+     */
+    public synchronized void clear() {
+        classEntries.clear();
+    }
+
+    /**
+     * @return the number of queries currently cached, over all classes.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (LRUMap entries : classEntries.values()) {
+            size += entries.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the maximum number of queries cached per data class.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize
+     *            the maximum number of queries cached per data class; 0
+     *            disables the cache. Changing the size drops every cached
+     *            query.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException(
+                    "cache size must not be negative");
+        }
+        this.maxSize = maxSize;
+        classEntries.clear();
+    }
+
+    /**
+     * @return the number of lookups that found their query.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find their query.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of queries evicted to make room for others.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters to zero.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache(size=" + size() + ",maxSize=" + maxSize + ",hits="
+                + hits + ",misses=" + misses + ",evictions=" + evictions + ")";
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,10 +20,10 @@ import com.github.jearls.SPRaceTracker.data.RaceObserver.RaceElement;
  */
 @Entity
 @IdentifiedBy({ "season", "raceNumber" })
-public class Race {
+public class Race implements DirtyTracked {
     // When adding new fields or changing fields, make sure to update
     // serialVersionUID.
-    public static final long serialVersionUID = 1L;
+    public static final long serialVersionUID = 3L;
 
     @Id
     public UUID              id;
@@ -36,13 +37,29 @@ public class Race {
     @OneToMany(mappedBy = "forRace", cascade = CascadeType.ALL)
     public List<Finish>      finishes;
 
+    /**
+     * The data store's change version when this Race was last written. Only
+     * the data store sets it, so it is not public and is left out of imports
+     * and exports.
+     */
+    long                     changeVersion;
+
     // The observer handling code
 
     /**
-     * The list of observers for this Race.
+     * The list of observers for this Race. It is created when the first
+     * observer is added, so that objects nobody observes do not carry one.
+     */
+    @Transient
+    Set<RaceObserver>        observers        = null;
+
+    /**
+     * The elements of this Race that have changed since it was last saved.
+     * Like the observers, it is created by the first change, so that objects
+     * that are only read do not carry one.
      */
     @Transient
-    Set<RaceObserver>        observers        = new HashSet<RaceObserver>();
+    EnumSet<RaceElement>     dirtyElements    = null;
 
     /**
      * Adds a new observer.
@@ -51,6 +68,9 @@ public class Race {
      *            The object to be notified when this race changes.
      */
     public void addObserver(RaceObserver observer) {
+        if (observers == null) {
+            observers = new HashSet<RaceObserver>();
+        }
         observers.add(observer);
     }
 
@@ -62,7 +82,9 @@ public class Race {
      *            changes.
      */
     public void removeObserver(RaceObserver observer) {
-        observers.remove(observer);
+        if (observers != null) {
+            observers.remove(observer);
+        }
     }
 
     /**
@@ -72,11 +94,47 @@ public class Race {
      *            What element in the race has changed.
      */
     public void notify(RaceElement whatChanged) {
+        if (dirtyElements == null) {
+            dirtyElements = EnumSet.of(whatChanged);
+        } else {
+            dirtyElements.add(whatChanged);
+        }
+        if (observers == null) {
+            return;
+        }
         for (RaceObserver observer : observers) {
             observer.raceChanged(this, whatChanged);
         }
     }
 
+    /**
+     * @return the elements of this Race that have changed since it was last
+     *         saved; empty if it has not changed.
+     */
+    public Set<RaceElement> getDirtyElements() {
+        if (dirtyElements == null) {
+            return EnumSet.noneOf(RaceElement.class);
+        }
+        return EnumSet.copyOf(dirtyElements);
+    }
+
+    /**
+     * @return true if this Race has changed since it was last saved.
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#isDirty()
+     */
+    public boolean isDirty() {
+        return dirtyElements != null && !dirtyElements.isEmpty();
+    }
+
+    /**
+     * Forgets the changes made to this Race, once they have been saved.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#clearDirty()
+     */
+    public void clearDirty() {
+        dirtyElements = null;
+    }
+
     /**
      * @return the season
      */
@@ -129,6 +187,7 @@ public class Race {
      */
     public void setCourseName(String courseName) {
         this.courseName = courseName;
+        this.notify(RaceElement.COURSE_NAME);
     }
 
     /**
@@ -144,6 +203,7 @@ public class Race {
      */
     public void setValueMultiplier(int valueMultiplier) {
         this.valueMultiplier = valueMultiplier;
+        this.notify(RaceElement.VALUE_MULTIPLIER);
     }
 
     /**
@@ -159,6 +219,7 @@ public class Race {
      */
     public void setByWeeks(int byWeeks) {
         this.byWeeks = byWeeks;
+        this.notify(RaceElement.BY_WEEKS);
     }
 
     /**
@@ -174,6 +235,7 @@ public class Race {
      */
     public void setFinishes(List<Finish> finishes) {
         this.finishes = finishes;
+        this.notify(RaceElement.FINISHERS);
     }
 
     /**
@@ -228,6 +290,13 @@ public class Race {
         this.id = id;
     }
 
+    /**
+     * @return the changeVersion
+     */
+    public long getChangeVersion() {
+        return changeVersion;
+    }
+
     /**
      * Returns true if "other" is a Race and both Races have the same ID.
      * 
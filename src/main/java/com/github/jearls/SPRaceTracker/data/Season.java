@@ -1,5 +1,6 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -21,10 +22,10 @@ import com.github.jearls.SPRaceTracker.data.SeasonObserver.SeasonElement;
  */
 @Entity
 @IdentifiedBy("name")
-public class Season {
+public class Season implements DirtyTracked {
     // When adding new fields or changing fields, make sure to update
     // serialVersionUID.
-    public static final long serialVersionUID = 1L;
+    public static final long serialVersionUID = 3L;
 
     @Id
     public UUID              id;
@@ -42,13 +43,29 @@ public class Season {
             initialValue = 1)
     public int               seasonOrder;
 
+    /**
+     * The data store's change version when this Season was last written. Only
+     * the data store sets it, so it is not public and is left out of imports
+     * and exports.
+     */
+    long                     changeVersion;
+
     // The observer handling code
 
     /**
-     * The list of observers for this Team.
+     * The list of observers for this Team. It is created when the first
+     * observer is added, so that objects nobody observes do not carry one.
+     */
+    @Transient
+    Set<SeasonObserver>      observers        = null;
+
+    /**
+     * The elements of this Season that have changed since it was last saved.
+     * Like the observers, it is created by the first change, so that objects
+     * that are only read do not carry one.
      */
     @Transient
-    Set<SeasonObserver>      observers        = new HashSet<SeasonObserver>();
+    EnumSet<SeasonElement>   dirtyElements    = null;
 
     /**
      * Adds a new observer.
@@ -57,6 +74,9 @@ public class Season {
      *            The object to be notified when this season changes.
      */
     public void addObserver(SeasonObserver observer) {
+        if (observers == null) {
+            observers = new HashSet<SeasonObserver>();
+        }
         observers.add(observer);
     }
 
@@ -68,7 +88,9 @@ public class Season {
      *            changes.
      */
     public void removeObserver(SeasonObserver observer) {
-        observers.remove(observer);
+        if (observers != null) {
+            observers.remove(observer);
+        }
     }
 
     /**
@@ -78,11 +100,47 @@ public class Season {
      *            What element in the season has changed.
      */
     public void notify(SeasonElement whatChanged) {
+        if (dirtyElements == null) {
+            dirtyElements = EnumSet.of(whatChanged);
+        } else {
+            dirtyElements.add(whatChanged);
+        }
+        if (observers == null) {
+            return;
+        }
         for (SeasonObserver observer : observers) {
             observer.seasonChanged(this, whatChanged);
         }
     }
 
+    /**
+     * @return the elements of this Season that have changed since it was last
+     *         saved; empty if it has not changed.
+     */
+    public Set<SeasonElement> getDirtyElements() {
+        if (dirtyElements == null) {
+            return EnumSet.noneOf(SeasonElement.class);
+        }
+        return EnumSet.copyOf(dirtyElements);
+    }
+
+    /**
+     * @return true if this Season has changed since it was last saved.
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#isDirty()
+     */
+    public boolean isDirty() {
+        return dirtyElements != null && !dirtyElements.isEmpty();
+    }
+
+    /**
+     * Forgets the changes made to this Season, once they have been saved.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#clearDirty()
+     */
+    public void clearDirty() {
+        dirtyElements = null;
+    }
+
     /**
      * @return the name
      */
@@ -177,7 +235,7 @@ public class Season {
     public void addRace(Race race) {
         if (!this.races.contains(race)) {
             this.races.add(race);
-            this.notify(SeasonElement.TEAMS);
+            this.notify(SeasonElement.RACES);
             if (race.getSeason() == null || !race.getSeason().equals(this)) {
                 race.setSeason(this);
             }
@@ -194,7 +252,7 @@ public class Season {
     public void removeRace(Race race) {
         if (this.races.contains(race)) {
             this.races.remove(race);
-            this.notify(SeasonElement.TEAMS);
+            this.notify(SeasonElement.RACES);
             if (race.getSeason() != null && race.getSeason().equals(this)) {
                 race.setSeason(null);
             }
@@ -232,6 +290,13 @@ public class Season {
         this.id = id;
     }
 
+    /**
+     * @return the changeVersion
+     */
+    public long getChangeVersion() {
+        return changeVersion;
+    }
+
     /**
      * Returns true if "other" is a Season and both Seasons have the same ID.
      * 
@@ -0,0 +1,165 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * <p>
+ * A SlowQueryLog records the data store queries that take longer than a
+ * threshold: what was asked for, the SQL that was run, the values bound to
+ * it, the number of rows returned and the time taken. Each entry is one line
+ * in a set of rolling log files, so the log never grows past
+ * <i>limit</i> &times; <i>count</i> bytes.
+ * </p>
+ * <p>
+ * A data store only times its queries while it has a SlowQueryLog, so
+ * leaving the log unset costs nothing.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class SlowQueryLog {
+    public static final long   serialVersionUID = 1L;
+
+    /**
+     * The default size, in bytes, at which a log file is rolled over.
+     */
+    public static final int    DEFAULT_LIMIT    = 1024 * 1024;
+
+    /**
+     * The default number of log files kept.
+     */
+    public static final int    DEFAULT_COUNT    = 4;
+
+    /**
+     * The name of the log files, where %g is the generation number.
+     */
+    public static final String FILE_PATTERN     = "slow-queries.%g.log";
+
+    static final String        DATE_FORMAT      = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    final FileHandler          handler;
+    volatile long              thresholdNanos;
+
+    /**
+     * Formats each entry as a single line, prefixed by its time.
+     */
+    static class LineFormatter extends Formatter {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+
+        @Override
+        public synchronized String format(LogRecord record) {
+            return dateFormat.format(new Date(record.getMillis())) + " "
+                    + record.getMessage() + System.getProperty("line.separator");
+        }
+    }
+
+    /**
+     * Opens a slow query log with the default file size and count.
+     * 
+     * @param directory
+     *            The directory to write the log files in.
+     * @param thresholdMillis
+     *            Queries that take at least this many milliseconds are
+     *            logged.
+     * @throws DataStoreException
+     *             if the log files could not be opened.
+     */
+    public SlowQueryLog(File directory, long thresholdMillis)
+            throws DataStoreException {
+        this(directory, thresholdMillis, DEFAULT_LIMIT, DEFAULT_COUNT);
+    }
+
+    /**
+     * Opens a slow query log.
+     * 
+     * @param directory
+     *            The directory to write the log files in.
+     * @param thresholdMillis
+     *            Queries that take at least this many milliseconds are
+     *            logged.
+     * @param limit
+     *            The size, in bytes, at which a log file is rolled over.
+     * @param count
+     *            The number of log files to keep.
+     * @throws DataStoreException
+     *             if the log files could not be opened.
+     */
+    public SlowQueryLog(File directory, long thresholdMillis, int limit,
+            int count) throws DataStoreException {
+        setThresholdMillis(thresholdMillis);
+        try {
+            handler =
+                    new FileHandler(new File(directory, FILE_PATTERN).getPath(),
+                            limit, count, true);
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+        handler.setFormatter(new LineFormatter());
+    }
+
+    /**
+     * @return the threshold, in milliseconds, at which queries are logged
+     */
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos);
+    }
+
+    /**
+     * @param thresholdMillis
+     *            the threshold, in milliseconds, at which queries are logged
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Logs a query if it took at least the threshold.
+     * 
+     * @param description
+     *            What the query was for, such as "fetchByFields(Race)".
+     * @param sql
+     *            The SQL that was run, or null if it is not known.
+     * @param binds
+     *            The values bound to the SQL, in order.
+     * @param rows
+     *            The number of rows the query returned.
+     * @param elapsedNanos
+     *            The time the query took.
+     */
+    public void log(String description, String sql, Collection<?> binds,
+                    int rows, long elapsedNanos) {
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+        List<Object> bindValues = new ArrayList<Object>();
+        if (binds != null) {
+            for (Object value : binds) {
+                bindValues.add(DataObjectUtilities.keyValue(value));
+            }
+        }
+        handler.publish(new LogRecord(Level.INFO,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms rows="
+                        + rows + " " + description
+                        + ((sql == null) ? "" : " sql=[" + sql + "]")
+                        + " binds=" + bindValues));
+        handler.flush();
+    }
+
+    /**
+     * Closes the log files.
+     */
+    public void close() {
+        handler.close();
+    }
+}
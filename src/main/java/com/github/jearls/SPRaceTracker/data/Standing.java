@@ -0,0 +1,105 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Standing is one row of a season's standings: the ID of the Driver or Team
+ * it is for, the points scored, and the number of finishes those points came
+ * from. Only the ID is held, so that computing standings does not load the
+ * Drivers or Teams themselves; callers that need them can look them up with
+ * {@link DataStore#fetchByIDs(Class, java.util.Collection)}.
+ * 
+ * @author jearls
+ */
+public class Standing {
+    public static final long serialVersionUID = 1L;
+
+    public final Object      id;
+    public final long        points;
+    public final int         finishes;
+
+    public Standing(Object id, long points, int finishes) {
+        this.id = id;
+        this.points = points;
+        this.finishes = finishes;
+    }
+
+    /**
+     * @return the ID of the Driver or Team this standing is for
+     */
+    public Object getId() {
+        return id;
+    }
+
+    /**
+     * @return the points scored
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the number of finishes counted
+     */
+    public int getFinishes() {
+        return finishes;
+    }
+
+    /**
+     * Computes the points scored by a single finish.
+     * 
+     * @param pointsByPlace
+     *            The points awarded for each place, starting with first place.
+     *            Places past the end of the array score nothing.
+     * @param place
+     *            The place finished.
+     * @param valueMultiplier
+     *            The race's value multiplier.
+     * @return The points scored.
+     */
+    public static long pointsFor(int[] pointsByPlace, int place,
+                                 int valueMultiplier) {
+        if (place < 1 || place > pointsByPlace.length) {
+            return 0;
+        }
+        return (long) pointsByPlace[place - 1] * valueMultiplier;
+    }
+
+    /**
+     * Orders standings from most to fewest points.
+     */
+    static final Comparator<Standing> BY_POINTS = new Comparator<Standing>() {
+        public int compare(Standing a, Standing b) {
+            return Long.compare(b.points, a.points);
+        }
+    };
+
+    /**
+     * Turns running totals into a list of standings, most points first.
+     * 
+     * @param points
+     *            A mapping of ID -&gt; points scored.
+     * @param finishes
+     *            A mapping of ID -&gt; number of finishes.
+     * @return The standings.
+     */
+    static List<Standing> fromTotals(Map<Object, Long> points,
+                                     Map<Object, Integer> finishes) {
+        List<Standing> standings = new ArrayList<Standing>(points.size());
+        for (Map.Entry<Object, Long> e : points.entrySet()) {
+            standings.add(new Standing(e.getKey(), e.getValue(), finishes
+                    .get(e.getKey())));
+        }
+        Collections.sort(standings, BY_POINTS);
+        return standings;
+    }
+
+    @Override
+    public String toString() {
+        return "Standing(" + id + "," + points + "," + finishes + ")";
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * TableMaintenance keeps an {@link EBeanDataStore}'s busiest tables compact
+ * and their index statistics fresh. Deleting and editing seasons leaves free
+ * space behind in the Derby files, and the statistics Derby plans queries
+ * with go stale as the data changes. On a background thread, each table is
+ * compacted and its statistics refreshed, no more often than the maintenance
+ * interval and only once the data store has gone a while without writes.
+ * </p>
+ * <p>
+ * Tables are rebuilt by a full compress unless {@link #setInPlace(boolean)}
+ * is used; see {@link EBeanDataStore#compactTable(Class, boolean)}. The pages
+ * reclaimed from each table, and in total, are kept as metrics.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class TableMaintenance {
+    public static final long       serialVersionUID    = 1L;
+
+    /**
+     * The default time, in milliseconds, without writes after which the data
+     * store is considered idle.
+     */
+    public static final long       DEFAULT_IDLE_TIME   = 5 * 60 * 1000L;
+
+    final EBeanDataStore           dataStore;
+    final List<Class<?>>           dataClasses;
+    final ScheduledExecutorService scheduler;
+
+    /**
+     * The pages reclaimed from each data class's table by the last run,
+     * keyed by the class's simple name. Guarded by this.
+     */
+    final Map<String, Long>        lastPagesReclaimed;
+
+    volatile boolean               inPlace             = false;
+    long                           runs                = 0;
+    long                           totalPagesReclaimed = 0;
+    long                           lastRunTime         = 0;
+
+    /**
+     * Creates maintenance for the Finish, Driver and Race tables, which have
+     * the most rows and see the most deletes and edits.
+     * 
+     * @param dataStore
+     *            The data store whose tables are maintained.
+     */
+    public TableMaintenance(EBeanDataStore dataStore) {
+        this(dataStore, Finish.class, Driver.class, Race.class);
+    }
+
+    /**
+     * Creates maintenance for the tables of some data classes. Nothing is
+     * done until {@link #start(long, long)} or {@link #maintain()} is called.
+     * 
+     * @param dataStore
+     *            The data store whose tables are maintained.
+     * @param dataClasses
+     *            The data classes whose tables are maintained.
+     */
+    public TableMaintenance(EBeanDataStore dataStore,
+            Class<?>... dataClasses) {
+        this.dataStore = dataStore;
+        this.dataClasses = new ArrayList<Class<?>>(Arrays.asList(dataClasses));
+        this.lastPagesReclaimed = new LinkedHashMap<String, Long>();
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "TableMaintenance");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * @return true if the tables are compacted in place, false if they are
+     *         rebuilt
+     */
+    public boolean isInPlace() {
+        return inPlace;
+    }
+
+    /**
+     * @param inPlace
+     *            true to compact the tables in place, which lets the data
+     *            store be written while it runs but reclaims less space;
+     *            false to rebuild them
+     */
+    public void setInPlace(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
+    /**
+     * Starts maintaining the tables in the background. Every idleTime the
+     * data store is checked, and the tables are maintained if they have not
+     * been for at least an interval and nothing has been written for at
+     * least idleTime.
+     * 
+     * @param interval
+     *            The least time, in milliseconds, between runs.
+     * @param idleTime
+     *            The time, in milliseconds, without writes after which the
+     *            data store is considered idle.
+     */
+    public void start(final long interval, final long idleTime) {
+        if (interval < 1 || idleTime < 1) {
+            throw new IllegalArgumentException(
+                    "interval and idle time must be positive");
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                long now = System.currentTimeMillis();
+                if (now - getLastRunTime() < interval
+                        || now - dataStore.getLastWriteTime() < idleTime) {
+                    return;
+                }
+                try {
+                    maintain();
+                } catch (DataStoreException e) {
+                    System.err.println("Table maintenance of "
+                            + dataStore.dbURL + " failed: " + e);
+                }
+            }
+        }, idleTime, idleTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compacts each table and refreshes its statistics now. If a table fails
+     * the others are still maintained, and the first failure is thrown
+     * afterwards.
+     * 
+     * @return The number of pages reclaimed from all the tables.
+     * @throws DataStoreException
+     *             if a table could not be maintained.
+     */
+    public long maintain() throws DataStoreException {
+        Map<String, Long> reclaimed = new LinkedHashMap<String, Long>();
+        DataStoreException failure = null;
+        long total = 0;
+        for (Class<?> dataClass : dataClasses) {
+            try {
+                long pages = dataStore.compactTable(dataClass, inPlace);
+                reclaimed.put(dataClass.getSimpleName(), pages);
+                total += pages;
+            } catch (DataStoreException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        synchronized (this) {
+            runs += 1;
+            totalPagesReclaimed += total;
+            lastRunTime = System.currentTimeMillis();
+            lastPagesReclaimed.clear();
+            lastPagesReclaimed.putAll(reclaimed);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of times the tables have been maintained
+     */
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return the number of pages reclaimed from all the tables by every run
+     */
+    public synchronized long getTotalPagesReclaimed() {
+        return totalPagesReclaimed;
+    }
+
+    /**
+     * @return the number of pages reclaimed from each table by the last run,
+     *         keyed by the simple name of its data class
+     */
+    public synchronized Map<String, Long> getLastPagesReclaimed() {
+        return new LinkedHashMap<String, Long>(lastPagesReclaimed);
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, of the last run, or
+     *         0 if the tables have not been maintained
+     */
+    public synchronized long getLastRunTime() {
+        return lastRunTime;
+    }
+
+    /**
+     * Stops maintaining the tables, waiting for a run in progress to finish.
+     * The data store is not closed.
+     */
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
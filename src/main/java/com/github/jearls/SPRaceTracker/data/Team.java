@@ -1,5 +1,6 @@
 package com.github.jearls.SPRaceTracker.data;
 
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -18,10 +19,10 @@ import com.github.jearls.SPRaceTracker.data.TeamObserver.TeamElement;
  */
 @Entity
 @IdentifiedBy("name")
-public class Team {
+public class Team implements DirtyTracked {
     // When adding new fields or changing fields, make sure to update
     // serialVersionUID.
-    public static final long serialVersionUID = 1L;
+    public static final long serialVersionUID = 3L;
 
     @Id
     public UUID              id;
@@ -35,13 +36,29 @@ public class Team {
     @ManyToMany(mappedBy = "teams", cascade = CascadeType.ALL)
     public List<Season>      seasons;
 
+    /**
+     * The data store's change version when this Team was last written. Only
+     * the data store sets it, so it is not public and is left out of imports
+     * and exports.
+     */
+    long                     changeVersion;
+
     // The observer handling code
 
     /**
-     * The list of observers for this Team.
+     * The list of observers for this Team. It is created when the first
+     * observer is added, so that objects nobody observes do not carry one.
+     */
+    @Transient
+    Set<TeamObserver>        observers        = null;
+
+    /**
+     * The elements of this Team that have changed since it was last saved.
+     * Like the observers, it is created by the first change, so that objects
+     * that are only read do not carry one.
      */
     @Transient
-    Set<TeamObserver>        observers        = new HashSet<TeamObserver>();
+    EnumSet<TeamElement>     dirtyElements    = null;
 
     /**
      * Adds a new observer.
@@ -50,6 +67,9 @@ public class Team {
      *            The object to be notified when this team changes.
      */
     public void addObserver(TeamObserver observer) {
+        if (observers == null) {
+            observers = new HashSet<TeamObserver>();
+        }
         observers.add(observer);
     }
 
@@ -61,7 +81,9 @@ public class Team {
      *            changes.
      */
     public void removeObserver(TeamObserver observer) {
-        observers.remove(observer);
+        if (observers != null) {
+            observers.remove(observer);
+        }
     }
 
     /**
@@ -71,11 +93,47 @@ public class Team {
      *            What element in the team has changed.
      */
     public void notify(TeamElement whatChanged) {
+        if (dirtyElements == null) {
+            dirtyElements = EnumSet.of(whatChanged);
+        } else {
+            dirtyElements.add(whatChanged);
+        }
+        if (observers == null) {
+            return;
+        }
         for (TeamObserver observer : observers) {
             observer.teamChanged(this, whatChanged);
         }
     }
 
+    /**
+     * @return the elements of this Team that have changed since it was last
+     *         saved; empty if it has not changed.
+     */
+    public Set<TeamElement> getDirtyElements() {
+        if (dirtyElements == null) {
+            return EnumSet.noneOf(TeamElement.class);
+        }
+        return EnumSet.copyOf(dirtyElements);
+    }
+
+    /**
+     * @return true if this Team has changed since it was last saved.
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#isDirty()
+     */
+    public boolean isDirty() {
+        return dirtyElements != null && !dirtyElements.isEmpty();
+    }
+
+    /**
+     * Forgets the changes made to this Team, once they have been saved.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DirtyTracked#clearDirty()
+     */
+    public void clearDirty() {
+        dirtyElements = null;
+    }
+
     /**
      * @return the name
      */
@@ -225,6 +283,13 @@ public class Team {
         this.id = id;
     }
 
+    /**
+     * @return the changeVersion
+     */
+    public long getChangeVersion() {
+        return changeVersion;
+    }
+
     /**
      * Returns true if "other" is a Team and both Teams have the same ID.
      * 
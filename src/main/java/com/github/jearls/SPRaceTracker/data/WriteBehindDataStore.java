@@ -0,0 +1,619 @@
+package com.github.jearls.SPRaceTracker.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A WriteBehindDataStore wraps another DataStore and delays saves. A save
+ * only queues the object; the queue is written to the wrapped store in
+ * batches, with {@link DataStore#saveAll(Collection)}, by a background thread
+ * every flush interval, or as soon as it holds a full batch. Saving an object
+ * that is already queued does not queue it again, so a run of changes to the
+ * same object, each followed by a save, is written once, with the object's
+ * latest state.
+ * </p>
+ * <p>
+ * Reads see the queued saves: before a fetch of a class, the queued objects
+ * of that class are written, and a fetch waits for any write already under
+ * way, including a background flush, to finish. Deletes write the whole queue first, so that a
+ * queued save cannot re-create a deleted object through a cascade. Objects
+ * saved within a transaction are queued separately for that thread, and are
+ * written when the transaction commits, as part of it, or discarded if it
+ * rolls back.
+ * </p>
+ * <p>
+ * When a batch fails to write, its objects are written one at a time, so
+ * that one bad object does not hold back the rest. Objects that still fail
+ * are queued to be retried, and are dropped, with a message, once they have
+ * failed {@link #MAX_WRITE_ATTEMPTS} times. The error of a background flush
+ * is thrown from the next call to {@link #flush()} or {@link #close()}.
+ * </p>
+ * 
+ * @author jearls
+ */
+public class WriteBehindDataStore extends DataStore {
+    public static final long serialVersionUID       = 1L;
+
+    /**
+     * The default time, in milliseconds, between background flushes.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 250;
+
+    /**
+     * The default number of queued objects that triggers a flush without
+     * waiting for the flush interval.
+     */
+    public static final int  DEFAULT_MAX_BATCH      = 100;
+
+    /**
+     * The number of times an object may fail to be written before it is
+     * dropped from the queue.
+     */
+    public static final int  MAX_WRITE_ATTEMPTS     = 3;
+
+    /**
+     * The queue key of an object that has no ID yet: the object itself,
+     * compared by identity.
+     */
+    static class IdentityKey {
+        final Object dataObject;
+
+        IdentityKey(Object dataObject) {
+            this.dataObject = dataObject;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(dataObject);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return (other instanceof IdentityKey)
+                    && ((IdentityKey) other).dataObject == dataObject;
+        }
+    }
+
+    final DataStore                                  dataStore;
+    final long                                       flushInterval;
+    final int                                        maxBatch;
+    final ScheduledExecutorService                   flusher;
+
+    /**
+     * The saves queued outside of any transaction, in the order they were
+     * first queued. Guarded by this.
+     */
+    LinkedHashMap<Object, Object>                    queue;
+
+    /**
+     * The number of failed writes of each queued object that has failed to
+     * be written. Guarded by this.
+     */
+    final Map<Object, Integer>                       failures;
+
+    /**
+     * Held while objects taken from the shared queue are written, so that a
+     * read waits for them to reach the wrapped store instead of finding
+     * them neither queued nor written.
+     */
+    final Object                                     writeLock;
+
+    /**
+     * The saves queued by the transaction in progress on each thread.
+     */
+    final ThreadLocal<LinkedHashMap<Object, Object>> transactionQueue;
+
+    boolean                                          flushScheduled = false;
+    DataStoreException                               flushError     = null;
+    long                                             saves          = 0;
+    long                                             writes         = 0;
+
+    /**
+     * Wraps a DataStore with the default flush interval and batch size.
+     * 
+     * @param dataStore
+     *            The DataStore to write to.
+     */
+    public WriteBehindDataStore(DataStore dataStore) {
+        this(dataStore, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * Wraps a DataStore.
+     * 
+     * @param dataStore
+     *            The DataStore to write to.
+     * @param flushInterval
+     *            The time, in milliseconds, between background flushes.
+     * @param maxBatch
+     *            The number of queued objects that triggers a flush without
+     *            waiting for the flush interval.
+     */
+    public WriteBehindDataStore(DataStore dataStore, long flushInterval,
+            int maxBatch) {
+        if (flushInterval < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException(
+                    "flush interval and batch size must be positive");
+        }
+        this.dataStore = dataStore;
+        this.flushInterval = flushInterval;
+        this.maxBatch = maxBatch;
+        this.queue = new LinkedHashMap<Object, Object>();
+        this.failures = new HashMap<Object, Integer>();
+        this.writeLock = new Object();
+        this.transactionQueue = new ThreadLocal<LinkedHashMap<Object, Object>>();
+        this.flusher =
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "WriteBehindDataStore");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                backgroundFlush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the wrapped DataStore
+     */
+    public DataStore getDataStore() {
+        return dataStore;
+    }
+
+    /**
+     * @return the number of saves queued outside of transactions and not yet
+     *         written
+     */
+    public synchronized int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of saves requested
+     */
+    public synchronized long getSaveCount() {
+        return saves;
+    }
+
+    /**
+     * @return the number of objects written to the wrapped DataStore; the
+     *         difference from {@link #getSaveCount()} is the number of saves
+     *         that were coalesced
+     */
+    public synchronized long getWriteCount() {
+        return writes;
+    }
+
+    /**
+     * Returns the key an object is queued under: its class and ID, or the
+     * object itself if it has no ID yet.
+     */
+    static Object queueKey(Object dataObject) {
+        Object id = DataObjectUtilities.getId(dataObject);
+        if (id == null) {
+            return new IdentityKey(dataObject);
+        }
+        return new EntityCache.Key(dataObject.getClass(), id);
+    }
+
+    /**
+     * Removes and returns the queued objects of a class, or all of them if
+     * the class is null.
+     */
+    static List<Object> take(Map<Object, Object> pending, Class<?> objectClass) {
+        List<Object> taken = new ArrayList<Object>();
+        Class<?> entityClass =
+                (objectClass == null) ? null : DataObjectUtilities
+                        .entityClass(objectClass);
+        Iterator<Object> values = pending.values().iterator();
+        while (values.hasNext()) {
+            Object dataObject = values.next();
+            if (entityClass == null
+                    || entityClass == DataObjectUtilities
+                            .entityClass(dataObject.getClass())) {
+                taken.add(dataObject);
+                values.remove();
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Takes the queued objects of a class, or all of them if the class is
+     * null, from the shared queue and writes them. The caller must hold the
+     * write lock.
+     */
+    void writeQueued(Class<?> objectClass) throws DataStoreException {
+        List<Object> objects;
+        synchronized (this) {
+            objects = take(queue, objectClass);
+        }
+        write(objects);
+    }
+
+    /**
+     * Writes objects taken from the shared queue. If the batch fails, the
+     * objects are written one at a time, and those that still fail are
+     * queued again, unless they have been queued again since.
+     */
+    void write(List<Object> objects) throws DataStoreException {
+        if (objects.isEmpty()) {
+            return;
+        }
+        try {
+            dataStore.saveAll(objects);
+            written(objects);
+            return;
+        } catch (DataStoreException e) {
+            // write the objects one at a time below
+        } catch (RuntimeException e) {
+            // write the objects one at a time below
+        }
+        List<Object> failed = new ArrayList<Object>();
+        DataStoreException error = null;
+        for (Object dataObject : objects) {
+            try {
+                dataStore.save(dataObject);
+                written(Collections.singletonList(dataObject));
+            } catch (DataStoreException e) {
+                failed.add(dataObject);
+                error = e;
+            } catch (RuntimeException e) {
+                failed.add(dataObject);
+                error = new DataStoreException(e);
+            }
+        }
+        if (error != null) {
+            requeue(failed);
+            throw error;
+        }
+    }
+
+    /**
+     * Counts objects as written and forgets their earlier failures.
+     */
+    synchronized void written(List<Object> objects) {
+        writes += objects.size();
+        if (!failures.isEmpty()) {
+            for (Object dataObject : objects) {
+                failures.remove(queueKey(dataObject));
+            }
+        }
+    }
+
+    /**
+     * Puts objects whose write failed back on the shared queue, except those
+     * that have now failed {@link #MAX_WRITE_ATTEMPTS} times, which are
+     * dropped.
+     */
+    synchronized void requeue(List<Object> objects) {
+        LinkedHashMap<Object, Object> retry =
+                new LinkedHashMap<Object, Object>();
+        for (Object dataObject : objects) {
+            Object key = queueKey(dataObject);
+            Integer failed = failures.get(key);
+            int attempts = (failed == null) ? 1 : failed + 1;
+            if (attempts >= MAX_WRITE_ATTEMPTS) {
+                System.err.println("Write-behind dropped " + dataObject
+                        + " after " + attempts + " failed writes");
+                failures.remove(key);
+            } else {
+                failures.put(key, attempts);
+                retry.put(key, dataObject);
+            }
+        }
+        for (Map.Entry<Object, Object> e : queue.entrySet()) {
+            retry.put(e.getKey(), e.getValue());
+        }
+        queue = retry;
+    }
+
+    /**
+     * Writes the queued objects of a class, or all of them if the class is
+     * null, that the current thread should be able to read back: those
+     * queued by its transaction if it is in one, and otherwise the shared
+     * queue.
+     */
+    void flush(Class<?> objectClass) throws DataStoreException {
+        LinkedHashMap<Object, Object> pending = transactionQueue.get();
+        if (pending != null) {
+            List<Object> objects = take(pending, objectClass);
+            if (!objects.isEmpty()) {
+                dataStore.saveAll(objects);
+                synchronized (this) {
+                    writes += objects.size();
+                }
+            }
+        } else {
+            synchronized (writeLock) {
+                writeQueued(objectClass);
+            }
+        }
+    }
+
+    /**
+     * Runs on the background thread: writes the whole shared queue, keeping
+     * any error to be thrown to the next caller of {@link #flush()}.
+     */
+    void backgroundFlush() {
+        synchronized (this) {
+            flushScheduled = false;
+        }
+        try {
+            synchronized (writeLock) {
+                writeQueued(null);
+            }
+        } catch (DataStoreException e) {
+            System.err.println("Write-behind flush failed: " + e);
+            synchronized (this) {
+                flushError = e;
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Write-behind flush failed: " + e);
+            synchronized (this) {
+                flushError = new DataStoreException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes every save queued outside of a transaction, on the calling
+     * thread.
+     * 
+     * @throws DataStoreException
+     *             if the queued objects could not be written, or if a
+     *             background flush has failed since the last call.
+     */
+    public void flush() throws DataStoreException {
+        DataStoreException error;
+        synchronized (this) {
+            error = flushError;
+            flushError = null;
+        }
+        synchronized (writeLock) {
+            writeQueued(null);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Queues an object to be saved. Within a transaction, the object is
+     * queued until the transaction commits.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#save(java.lang.Object)
+     */
+    @Override
+    public void save(Object o) throws DataStoreException {
+        LinkedHashMap<Object, Object> pending = transactionQueue.get();
+        synchronized (this) {
+            saves += 1;
+            if (pending != null) {
+                pending.put(queueKey(o), o);
+                return;
+            }
+            queue.put(queueKey(o), o);
+            if (queue.size() < maxBatch || flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        flusher.execute(new Runnable() {
+            public void run() {
+                backgroundFlush();
+            }
+        });
+    }
+
+    /**
+     * Writes the queue, then deletes the object.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Object o) throws DataStoreException {
+        flush(null);
+        dataStore.delete(o);
+    }
+
+    /**
+     * Writes the queue, then deletes the objects.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#deleteAll(java.util.Collection)
+     */
+    @Override
+    public int deleteAll(Collection<?> objects) throws DataStoreException {
+        flush(null);
+        return dataStore.deleteAll(objects);
+    }
+
+    /**
+     * Stops the background flushes, writes the queue, and closes the wrapped
+     * DataStore.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#close()
+     */
+    @Override
+    public void close() throws DataStoreException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(flushInterval * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            dataStore.close();
+        }
+    }
+
+    /**
+     * Writes the queue, so that earlier saves are not made part of the
+     * transaction, then begins the transaction.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#beginTransaction()
+     */
+    @Override
+    public void beginTransaction() throws DataStoreException {
+        if (transactionQueue.get() != null) {
+            throw new DataStoreException("Transaction already in progress");
+        }
+        flush(null);
+        dataStore.beginTransaction();
+        transactionQueue.set(new LinkedHashMap<Object, Object>());
+    }
+
+    /**
+     * Writes the saves queued by the transaction, then commits it.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#commitTransaction()
+     */
+    @Override
+    public void commitTransaction() throws DataStoreException {
+        if (transactionQueue.get() == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        try {
+            flush(null);
+        } catch (DataStoreException e) {
+            rollbackTransaction();
+            throw e;
+        }
+        transactionQueue.remove();
+        dataStore.commitTransaction();
+    }
+
+    /**
+     * Discards the saves queued by the transaction, then rolls it back.
+     * 
+     * @see com.github.jearls.SPRaceTracker.data.DataStore#rollbackTransaction()
+     */
+    @Override
+    public void rollbackTransaction() throws DataStoreException {
+        if (transactionQueue.get() == null) {
+            throw new DataStoreException("No transaction in progress");
+        }
+        transactionQueue.remove();
+        dataStore.rollbackTransaction();
+    }
+
+    @Override
+    public <T> T fetchByID(Class<T> objectClass, Object ID)
+            throws DataStoreNotFoundException, DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchByID(objectClass, ID);
+    }
+
+    @Override
+    public <T> Map<Object, T> fetchByIDs(Class<T> objectClass,
+                                         Collection<?> IDs,
+                                         Collection<Object> missingIDs)
+            throws DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchByIDs(objectClass, IDs, missingIDs);
+    }
+
+    @Override
+    public <T> List<T> fetchByField(Class<T> objectClass, String field,
+                                    Object value) throws DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchByField(objectClass, field, value);
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData)
+            throws DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchByFields(objectClass, fieldData);
+    }
+
+    @Override
+    public <T> List<T> fetchByFields(Class<T> objectClass,
+                                     Map<String, Object> fieldData,
+                                     FetchOptions options)
+            throws DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchByFields(objectClass, fieldData, options);
+    }
+
+    @Override
+    public int count(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        flush(objectClass);
+        return dataStore.count(objectClass, fieldData);
+    }
+
+    @Override
+    public boolean exists(Class<?> objectClass, Map<String, Object> fieldData)
+            throws DataStoreException {
+        flush(objectClass);
+        return dataStore.exists(objectClass, fieldData);
+    }
+
+    @Override
+    public List<Standing> driverStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        flush(null);
+        return dataStore.driverStandings(season, pointsByPlace);
+    }
+
+    @Override
+    public List<Standing> teamStandings(Season season, int[] pointsByPlace)
+            throws DataStoreException {
+        flush(null);
+        return dataStore.teamStandings(season, pointsByPlace);
+    }
+
+    @Override
+    public List<DataChange> changesSince(long version)
+            throws DataStoreException {
+        flush(null);
+        return dataStore.changesSince(version);
+    }
+
+    @Override
+    public long currentVersion() throws DataStoreException {
+        flush(null);
+        return dataStore.currentVersion();
+    }
+
+    @Override
+    public <T> List<T> fetchAll(Class<T> objectClass) throws DataStoreException {
+        flush(objectClass);
+        return dataStore.fetchAll(objectClass);
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        flush(objectClass);
+        dataStore.forEach(objectClass, visitor);
+    }
+
+    @Override
+    public <T> void forEach(Class<T> objectClass, FetchOptions options,
+                            DataStoreVisitor<? super T> visitor)
+            throws DataStoreException {
+        flush(objectClass);
+        dataStore.forEach(objectClass, options, visitor);
+    }
+}
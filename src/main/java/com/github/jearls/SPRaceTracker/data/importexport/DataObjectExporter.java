@@ -9,6 +9,8 @@ import java.util.Map.Entry;
 
 import com.github.jearls.SPRaceTracker.data.DataStore;
 import com.github.jearls.SPRaceTracker.data.DataStoreException;
+import com.github.jearls.SPRaceTracker.data.DataStoreVisitor;
+import com.github.jearls.SPRaceTracker.data.FetchOptions;
 import com.github.jearls.SPRaceTracker.data.importexport.FieldInfo.FieldType;
 import com.github.jearls.SPRaceTracker.data.importexport.StructuredObjectData.StructuredObjectDataMap;
 
@@ -76,7 +78,52 @@ public abstract class DataObjectExporter {
     }
 
     /**
-     * Fetches the data objects for a single data class and exports those.
+     * Adds a fetch path for every reference that {@link #fetchObjectData}
+     * will follow: each related-object field, and recursively each
+     * related-object field among the identity fields of the object it refers
+     * to (for a Finish, "forRace", "forRace.season" and "driver").
+     * 
+     * @param options
+     *            The FetchOptions to add the fetch paths to.
+     * @param fieldInfos
+     *            The fields whose references to follow.
+     * @param prefix
+     *            The path of the object holding the fields, ending with a
+     *            dot, or "" for the exported object itself.
+     */
+    static void addFetchPaths(FetchOptions options,
+                              Collection<FieldInfo> fieldInfos, String prefix) {
+        for (FieldInfo info : fieldInfos) {
+            if (info.relatedObject != null) {
+                String path = prefix + info.field.getName();
+                options.fetch(path);
+                addFetchPaths(options,
+                        info.relatedObject.identityFieldMap.values(), path
+                                + ".");
+            }
+        }
+    }
+
+    /**
+     * Builds the FetchOptions used to export a data class, so that the
+     * references exported with each object are loaded in the same query as
+     * the object instead of one query per reference.
+     * 
+     * @param analysis
+     *            The ClassAnalysis of the data class.
+     * @return The FetchOptions.
+     */
+    static FetchOptions fetchOptions(ClassAnalysis analysis) {
+        FetchOptions options = new FetchOptions();
+        addFetchPaths(options, analysis.fieldMap.values(), "");
+        return options;
+    }
+
+    /**
+     * Fetches the data objects for a single data class and exports those. The
+     * objects are streamed from the data store and exported as they arrive,
+     * with the related objects that identify their references fetched along
+     * with them (see {@link #fetchOptions(ClassAnalysis)}).
      * 
      * @param store
      *            The DataStore from which to fetch the data objects.
@@ -87,18 +134,27 @@ public abstract class DataObjectExporter {
      * @throws ImporterExporterException
      */
     void exportDataClass(DataStore store, Class<?> dataClass,
-                         ClassAnalysis analysis)
+                         final ClassAnalysis analysis)
             throws ImporterExporterException {
-        try {
-            final List<?> objects = store.fetchAll(dataClass);
-            startExporting(dataClass, analysis);
-            for (Object dataObject : objects) {
-                exportDataObject(dataObject, analysis);
+        startExporting(dataClass, analysis);
+        DataStoreVisitor<Object> exporter = new DataStoreVisitor<Object>() {
+            public void visit(Object dataObject) throws DataStoreException {
+                try {
+                    exportDataObject(dataObject, analysis);
+                } catch (ImporterExporterException e) {
+                    throw new DataStoreException(e);
+                }
             }
-            finishExporting(dataClass, analysis);
+        };
+        try {
+            store.forEach(dataClass, fetchOptions(analysis), exporter);
         } catch (DataStoreException e) {
+            if (e.getCause() instanceof ImporterExporterException) {
+                throw (ImporterExporterException) e.getCause();
+            }
             throw new ImporterExporterException(e);
         }
+        finishExporting(dataClass, analysis);
     }
 
     /**
@@ -97,7 +97,33 @@ public abstract class DataObjectImporter {
     List<ToOneRelation>  relatedToOneList  = new LinkedList<ToOneRelation>();
     List<ToManyRelation> relatedToManyList = new LinkedList<ToManyRelation>();
 
+    /**
+     * Starts the import by beginning a data store transaction, so that the
+     * whole import is written as a single unit.
+     * 
+     * @throws ImporterExporterException
+     *             if the transaction could not be started.
+     */
     void initializeImport() throws ImporterExporterException {
+        try {
+            dataStore.beginTransaction();
+        } catch (DataStoreException e) {
+            throw new ImporterExporterException(e);
+        }
+    }
+
+    /**
+     * Abandons an import that failed part way through, rolling back everything
+     * saved to the data store since {@link #initializeImport()}. Any error
+     * while rolling back is reported but otherwise ignored, so that the
+     * original failure is the one seen by the caller.
+     */
+    void abortImport() {
+        try {
+            dataStore.rollbackTransaction();
+        } catch (DataStoreException e) {
+            System.err.println("Unable to roll back import: " + e);
+        }
     }
 
     void finalizeImport() throws ImporterExporterException {
@@ -160,6 +186,7 @@ public abstract class DataObjectImporter {
                     }
                 }
             }
+            dataStore.commitTransaction();
         } catch (ReflectiveOperationException e) {
             throw new ImporterExporterException(e);
         } catch (DataStoreException e) {
@@ -181,7 +208,7 @@ public abstract class DataObjectImporter {
         // first, check if we already exist in the data store.
         // to do this, we get our ObjectIdentityInfo and generate a data store
         // query based on the identityFieldMap and the objectFields.
-        if (queryDataStoreForObjectIdentity(dataClass, objectIdentity) == null) {
+        if (!objectIdentityExists(dataClass, objectIdentity)) {
             try {
                 System.err.println("Importing " + dataClass.getSimpleName()
                         + " from " + objectFields);
@@ -225,21 +252,18 @@ public abstract class DataObjectImporter {
     }
 
     /**
-     * Queries the data store for an object based on a structured identity map.
-     * First, this scans the identity map for any ReferencedObjectData fields.
-     * Those are recursively queried. If we got a result from the query, then
-     * the ReferencedObjectData identity is replaced by the ID field of the
-     * object found and we make the data store query against this ID. If exactly
-     * one object was returned from the data store query, we return it;
-     * otherwise, we return null.
+     * Translates a structured identity map into a data store query. Any
+     * ReferencedObjectData fields are recursively queried with
+     * {@link #queryDataStoreForObjectIdentity}, and replaced by the object
+     * found.
      * 
      * @param objectIdentity
-     * @return
+     * @return The query, as a mapping of field name -&gt; field value, or null
+     *         if a referenced object could not be found (in which case no
+     *         object can match the identity).
      */
-    Object queryDataStoreForObjectIdentity(Class<?> dataClass,
-                                           StructuredObjectDataMap objectIdentity) {
+    Map<String, Object> identityQuery(StructuredObjectDataMap objectIdentity) {
         Map<String, Object> queryFields = new HashMap<String, Object>();
-        Object returnValue = null;
         for (Entry<FieldInfo, StructuredObjectData> idEntry : objectIdentity
                 .entrySet()) {
             if (idEntry.getValue() instanceof ReferencedObjectData) {
@@ -256,6 +280,25 @@ public abstract class DataObjectImporter {
                         ((DirectObjectData) idEntry.getValue()).fieldData);
             }
         }
+        return queryFields;
+    }
+
+    /**
+     * Queries the data store for an object based on a structured identity map.
+     * The identity map is translated by {@link #identityQuery}. If exactly one
+     * object was returned from the data store query, we return it; otherwise,
+     * we return null.
+     * 
+     * @param objectIdentity
+     * @return
+     */
+    Object queryDataStoreForObjectIdentity(Class<?> dataClass,
+                                           StructuredObjectDataMap objectIdentity) {
+        Map<String, Object> queryFields = identityQuery(objectIdentity);
+        Object returnValue = null;
+        if (queryFields == null) {
+            return null;
+        }
         try {
             List<?> results = dataStore.fetchByFields(dataClass, queryFields);
             if (results.size() == 1) {
@@ -269,6 +312,30 @@ public abstract class DataObjectImporter {
         return returnValue;
     }
 
+    /**
+     * Checks whether the data store already holds an object with a structured
+     * identity, without loading it.
+     * 
+     * @param dataClass
+     * @param objectIdentity
+     * @return true if an object with that identity exists.
+     * @throws ImporterExporterException
+     *             if the data store could not be queried.
+     */
+    boolean objectIdentityExists(Class<?> dataClass,
+                                 StructuredObjectDataMap objectIdentity)
+            throws ImporterExporterException {
+        Map<String, Object> queryFields = identityQuery(objectIdentity);
+        if (queryFields == null) {
+            return false;
+        }
+        try {
+            return dataStore.exists(dataClass, queryFields);
+        } catch (DataStoreException e) {
+            throw new ImporterExporterException(e);
+        }
+    }
+
     /**
      * Imports the abstract representation of a data object's relation.
      * 
@@ -351,8 +351,16 @@ public class XMLImporter extends DataObjectImporter {
                     DocumentBuilderFactory.newInstance().newDocumentBuilder()
                             .parse(new InputSource(in));
             initializeImport();
-            importDocument(xmlDoc.getDocumentElement());
-            finalizeImport();
+            try {
+                importDocument(xmlDoc.getDocumentElement());
+                finalizeImport();
+            } catch (ImporterExporterException e) {
+                abortImport();
+                throw e;
+            } catch (RuntimeException e) {
+                abortImport();
+                throw e;
+            }
         } catch (SAXException e) {
             throw new XMLImporterException(e);
         } catch (IOException e) {